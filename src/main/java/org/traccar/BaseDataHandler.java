@@ -15,24 +15,66 @@
  */
 package org.traccar;
 
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.Channel;
 import org.traccar.model.Position;
+import org.traccar.session.cache.CacheManager;
 
-public abstract class BaseDataHandler extends ChannelInboundHandlerAdapter {
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public abstract class BaseDataHandler extends BasePositionHandler {
+
+    protected interface SequentialHandler {
+        Position handlePosition(Position position, Position last);
+    }
 
     @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        if (msg instanceof Position) {
-            Position position = handlePosition((Position) msg);
-            if (position != null) {
-                ctx.fireChannelRead(position);
+    public void handlePosition(Channel channel, Position position, Callback callback) throws Exception {
+        callback.processed(handlePosition(position));
+    }
+
+    @Override
+    public void handlePositions(Channel channel, List<Position> positions, BatchCallback callback) throws Exception {
+        callback.processed(handlePositions(positions));
+    }
+
+    protected abstract Position handlePosition(Position position);
+
+    protected List<Position> handlePositions(List<Position> positions) {
+        List<Position> result = new ArrayList<>(positions.size());
+        for (Position position : positions) {
+            Position processed = handlePosition(position);
+            if (processed != null) {
+                result.add(processed);
             }
-        } else {
-            super.channelRead(ctx, msg);
         }
+        return result;
     }
 
-    protected abstract Position handlePosition(Position position);
+    /**
+     * Process batch in order, providing each position with the last position of the device as it would be after the
+     * earlier positions of the batch are processed. The first position of each device gets the cached last position.
+     */
+    protected static List<Position> handleSequentially(
+            CacheManager cacheManager, List<Position> positions, SequentialHandler handler) {
+        Map<Long, Position> lastPositions = new HashMap<>();
+        List<Position> result = new ArrayList<>(positions.size());
+        for (Position position : positions) {
+            long deviceId = position.getDeviceId();
+            Position last = lastPositions.containsKey(deviceId)
+                    ? lastPositions.get(deviceId) : cacheManager.getPosition(deviceId);
+            Position processed = handler.handlePosition(position, last);
+            if (processed != null) {
+                result.add(processed);
+                if (last == null || processed.getFixTime().compareTo(last.getFixTime()) >= 0) {
+                    last = processed;
+                }
+            }
+            lastPositions.put(deviceId, last);
+        }
+        return result;
+    }
 
 }
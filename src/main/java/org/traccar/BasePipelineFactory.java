@@ -19,33 +19,10 @@ import java.util.Map;
 
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
-import org.traccar.handler.ComputedAttributesHandler;
-import org.traccar.handler.CopyAttributesHandler;
-import org.traccar.handler.DefaultDataHandler;
-import org.traccar.handler.DistanceHandler;
-import org.traccar.handler.EngineHoursHandler;
-import org.traccar.handler.FilterHandler;
-import org.traccar.handler.GeocoderHandler;
-import org.traccar.handler.GeolocationHandler;
-import org.traccar.handler.HemisphereHandler;
-import org.traccar.handler.MotionHandler;
 import org.traccar.handler.NetworkMessageHandler;
 import org.traccar.handler.OpenChannelHandler;
-import org.traccar.handler.RemoteAddressHandler;
-import org.traccar.handler.SpeedLimitHandler;
+import org.traccar.handler.ProcessingHandler;
 import org.traccar.handler.StandardLoggingHandler;
-import org.traccar.handler.TimeHandler;
-import org.traccar.handler.events.AlertEventHandler;
-import org.traccar.handler.events.BehaviorEventHandler;
-import org.traccar.handler.events.CommandResultEventHandler;
-import org.traccar.handler.events.DriverEventHandler;
-import org.traccar.handler.events.FuelEventHandler;
-import org.traccar.handler.events.GeofenceEventHandler;
-import org.traccar.handler.events.IgnitionEventHandler;
-import org.traccar.handler.events.MaintenanceEventHandler;
-import org.traccar.handler.events.MediaEventHandler;
-import org.traccar.handler.events.MotionEventHandler;
-import org.traccar.handler.events.OverspeedEventHandler;
 
 import com.google.inject.Injector;
 
@@ -62,12 +39,18 @@ public abstract class BasePipelineFactory extends ChannelInitializer<Channel> {
     private final Injector injector;
     private final TrackerConnector connector;
     private final String protocol;
+    private final DeviceEventExecutor executor;
+    private final ProcessingHandler processingHandler;
+    private final MainEventHandler mainEventHandler;
     private int timeout;
 
     public BasePipelineFactory(TrackerConnector connector, Config config, String protocol) {
         this.injector = Main.getInjector();
         this.connector = connector;
         this.protocol = protocol;
+        executor = injector.getInstance(DeviceEventExecutor.class);
+        processingHandler = injector.getInstance(ProcessingHandler.class);
+        mainEventHandler = injector.getInstance(MainEventHandler.class);
         timeout = config.getInteger(Keys.PROTOCOL_TIMEOUT.withPrefix(protocol));
         if (timeout == 0) {
             timeout = config.getInteger(Keys.SERVER_TIMEOUT);
@@ -78,15 +61,6 @@ public abstract class BasePipelineFactory extends ChannelInitializer<Channel> {
 
     protected abstract void addProtocolHandlers(PipelineBuilder pipeline);
 
-    @SafeVarargs
-    private void addHandlers(ChannelPipeline pipeline, Class<? extends ChannelHandler>... handlerClasses) {
-        for (Class<? extends ChannelHandler> handlerClass : handlerClasses) {
-            if (handlerClass != null) {
-                pipeline.addLast(injector.getInstance(handlerClass));
-            }
-        }
-    }
-
     public static <T extends ChannelHandler> T getHandler(ChannelPipeline pipeline, Class<T> clazz) {
         for (Map.Entry<String, ChannelHandler> handlerEntry : pipeline) {
             ChannelHandler handler = handlerEntry.getValue();
@@ -128,35 +102,9 @@ public abstract class BasePipelineFactory extends ChannelInitializer<Channel> {
             pipeline.addLast(handler);
         });
 
-        addHandlers(
-                pipeline,
-                TimeHandler.class,
-                GeolocationHandler.class,
-                HemisphereHandler.class,
-                DistanceHandler.class,
-                RemoteAddressHandler.class,
-                FilterHandler.class,
-                EtollDataHandler.class,
-                GeocoderHandler.class,
-                SpeedLimitHandler.class,
-                MotionHandler.class,
-                CopyAttributesHandler.class,
-                EngineHoursHandler.class,
-                ComputedAttributesHandler.class,
-                WebDataHandler.class,
-                DefaultDataHandler.class,
-                MediaEventHandler.class,
-                CommandResultEventHandler.class,
-                OverspeedEventHandler.class,
-                BehaviorEventHandler.class,
-                FuelEventHandler.class,
-                MotionEventHandler.class,
-                GeofenceEventHandler.class,
-                AlertEventHandler.class,
-                IgnitionEventHandler.class,
-                MaintenanceEventHandler.class,
-                DriverEventHandler.class,
-                MainEventHandler.class);
+        // processing handler dispatches positions to device shards, other events are pinned to the channel shard
+        pipeline.addLast(processingHandler);
+        pipeline.addLast(executor, mainEventHandler);
     }
 
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.traccar.model.Position;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Position processing stage. Handlers can complete synchronously or asynchronously by invoking the callback with the
+ * processed position. The callback has to be invoked exactly once; invoking it with null drops the position from
+ * further processing.
+ * <p>
+ * Positions decoded from the same message can be processed as a batch. Handlers that rely on state left by earlier
+ * positions (last position in cache, device state) have to either process the batch in order themselves or disable
+ * batch support, in which case each position continues through the rest of the chain individually.
+ */
+public abstract class BasePositionHandler extends ChannelInboundHandlerAdapter {
+
+    public interface Callback {
+        void processed(Position position);
+    }
+
+    public interface BatchCallback {
+        void processed(List<Position> positions);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof Position) {
+            handlePosition(ctx.channel(), (Position) msg, position -> {
+                if (position != null) {
+                    ctx.fireChannelRead(position);
+                }
+            });
+        } else {
+            super.channelRead(ctx, msg);
+        }
+    }
+
+    /**
+     * Indicates whether the handler needs to be included in the processing chain with the current configuration.
+     */
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public boolean isBatchSupported() {
+        return true;
+    }
+
+    public abstract void handlePosition(Channel channel, Position position, Callback callback) throws Exception;
+
+    /**
+     * Default implementation handles all positions individually and completes when every position is processed or
+     * dropped. A position that fails with an exception is dropped and the first exception is rethrown once all
+     * positions are handled.
+     */
+    public void handlePositions(Channel channel, List<Position> positions, BatchCallback callback) throws Exception {
+        Position[] results = new Position[positions.size()];
+        AtomicInteger remaining = new AtomicInteger(positions.size());
+        Exception error = null;
+        for (int i = 0; i < positions.size(); i++) {
+            int index = i;
+            AtomicBoolean completed = new AtomicBoolean();
+            Callback positionCallback = position -> {
+                if (!completed.compareAndSet(false, true)) {
+                    return;
+                }
+                results[index] = position;
+                if (remaining.decrementAndGet() == 0) {
+                    List<Position> result = new ArrayList<>(results.length);
+                    for (Position item : results) {
+                        if (item != null) {
+                            result.add(item);
+                        }
+                    }
+                    callback.processed(result);
+                }
+            };
+            try {
+                handlePosition(channel, positions.get(i), positionCallback);
+            } catch (Exception e) {
+                if (error == null) {
+                    error = e;
+                }
+                positionCallback.processed(null);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+}
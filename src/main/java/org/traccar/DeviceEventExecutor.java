@@ -0,0 +1,259 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar;
+
+import io.netty.util.concurrent.AbstractEventExecutor;
+import io.netty.util.concurrent.AbstractEventExecutorGroup;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.traccar.storage.StorageWorkload;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for the position processing part of the pipeline. Positions are assigned to single threaded shards by
+ * device id, so records from the same device are always processed in order and blocking handlers do not stall the
+ * network event loops.
+ * <p>
+ * When used as a Netty executor group, each channel pipeline is pinned to one shard returned by {@link #next()}, so
+ * channel events of the same connection are also handled in order.
+ */
+public class DeviceEventExecutor extends AbstractEventExecutorGroup {
+
+    private final Shard[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final Promise<Void> terminationFuture = new DefaultPromise<Void>(GlobalEventExecutor.INSTANCE);
+
+    public DeviceEventExecutor(int threads) {
+        shards = new Shard[threads];
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    public final class Shard extends AbstractEventExecutor {
+
+        private final int index;
+        private final ThreadPoolExecutor executor;
+
+        private final AtomicLong taskCount = new AtomicLong();
+        private final AtomicLong totalWait = new AtomicLong();
+        private final AtomicLong maxWait = new AtomicLong();
+        private long reportedTaskCount;
+
+        private Shard(int index) {
+            super(DeviceEventExecutor.this);
+            this.index = index;
+            executor = new ThreadPoolExecutor(
+                    1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> new ShardThread(
+                            this, StorageWorkload.INGEST.wrap(runnable), "device-executor-" + index));
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            long queued = System.nanoTime();
+            executor.execute(() -> {
+                long wait = System.nanoTime() - queued;
+                totalWait.addAndGet(wait);
+                taskCount.incrementAndGet();
+                maxWait.accumulateAndGet(wait, Math::max);
+                task.run();
+            });
+        }
+
+        @Override
+        public boolean inEventLoop(Thread thread) {
+            return thread instanceof ShardThread && ((ShardThread) thread).shard == this;
+        }
+
+        @Override
+        public boolean isShuttingDown() {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public Future<?> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+            return DeviceEventExecutor.this.shutdownGracefully(quietPeriod, timeout, unit);
+        }
+
+        @Override
+        public Future<?> terminationFuture() {
+            return terminationFuture;
+        }
+
+        @Override
+        @Deprecated
+        public void shutdown() {
+            DeviceEventExecutor.this.shutdown();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getQueueSize() {
+            return executor.getQueue().size();
+        }
+
+        public long getTaskCount() {
+            return taskCount.get();
+        }
+
+        /**
+         * Average time in milliseconds tasks spent in the queue since the previous call.
+         */
+        public synchronized double resetAverageWait() {
+            long wait = totalWait.getAndSet(0);
+            long currentTaskCount = taskCount.get();
+            long count = currentTaskCount - reportedTaskCount;
+            reportedTaskCount = currentTaskCount;
+            return count > 0 ? wait / 1e6 / count : 0;
+        }
+
+        /**
+         * Maximum time in milliseconds a task spent in the queue since the previous call.
+         */
+        public double resetMaxWait() {
+            return maxWait.getAndSet(0) / 1e6;
+        }
+
+    }
+
+    private static final class ShardThread extends Thread {
+
+        private final Shard shard;
+
+        private ShardThread(Shard shard, Runnable runnable, String name) {
+            super(runnable, name);
+            this.shard = shard;
+        }
+
+    }
+
+    public List<Shard> getShards() {
+        return List.of(shards);
+    }
+
+    public Shard getShard(long deviceId) {
+        return shards[(int) Math.floorMod(deviceId, (long) shards.length)];
+    }
+
+    public void execute(long deviceId, Runnable task) {
+        getShard(deviceId).execute(task);
+    }
+
+    @Override
+    public EventExecutor next() {
+        return shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
+    }
+
+    @Override
+    public Iterator<EventExecutor> iterator() {
+        return List.<EventExecutor>of(shards).iterator();
+    }
+
+    @Override
+    public boolean isShuttingDown() {
+        return isShutdown();
+    }
+
+    @Override
+    public Future<?> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        shutdown();
+        return terminationFuture;
+    }
+
+    @Override
+    public Future<?> terminationFuture() {
+        return terminationFuture;
+    }
+
+    @Override
+    @Deprecated
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+        GlobalEventExecutor.INSTANCE.execute(() -> {
+            try {
+                for (Shard shard : shards) {
+                    shard.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                }
+                terminationFuture.trySuccess(null);
+            } catch (InterruptedException e) {
+                terminationFuture.tryFailure(e);
+            }
+        });
+    }
+
+    @Override
+    public boolean isShutdown() {
+        for (Shard shard : shards) {
+            if (!shard.executor.isShutdown()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        for (Shard shard : shards) {
+            if (!shard.executor.isTerminated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Shard shard : shards) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !shard.executor.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -19,6 +19,7 @@ import java.text.ParseException;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -97,10 +98,18 @@ public class EtollDataHandler extends BaseDataHandler {
 
     @Override
     protected Position handlePosition(Position position) {
+        return handlePosition(position, cacheManager.getPosition(position.getDeviceId()));
+    }
+
+    @Override
+    protected List<Position> handlePositions(List<Position> positions) {
+        return handleSequentially(cacheManager, positions, this::handlePosition);
+    }
+
+    private Position handlePosition(Position position, Position lastPosition) {
         try {
             Device device = cacheManager.getObject(Device.class, position.getDeviceId());
             if (device.getAttributes().containsKey(ETOLL)) {
-                Position lastPosition = getLastPosition(device);
                 if (isEtollGeofenceEnabled && isInEtollGeofence(lastPosition)) {
                     EtollPosition eposition = new EtollPosition();
                     eposition.setPositionId(lastPosition.getId());
@@ -122,10 +131,6 @@ public class EtollDataHandler extends BaseDataHandler {
         return position;
     }
 
-    private Position getLastPosition(Device device) {
-        return cacheManager.getPosition(device.getId());
-    }
-
     private boolean isInEtollGeofence(Position lastPosition) {
         if (lastPosition != null) {
             for (Iterator<GeofencePolygon> iterator = etollGeofences.iterator(); iterator.hasNext();) {
@@ -12,6 +12,7 @@ import org.traccar.EtollConnection.EtollServerNotAvailableException;
 import org.traccar.model.EtollPackage;
 import org.traccar.model.EtollPosition;
 import org.traccar.storage.Storage;
+import org.traccar.storage.StorageWorkload;
 import org.traccar.storage.query.Columns;
 import org.traccar.storage.query.Condition;
 import org.traccar.storage.query.Limit;
@@ -29,6 +30,7 @@ public class EtollThread extends Thread {
 
     @Override
     public void run() {
+        StorageWorkload.set(StorageWorkload.BACKGROUND);
         while (true) {
             try {
                Collection<EtollPosition> positions = storage.getObjects(EtollPosition.class, new Request(
@@ -1,5 +1,5 @@
 /*
- * Copyright 2012 - 2018 Anton Tananaev (anton@traccar.org)
+ * Copyright 2012 - 2022 Anton Tananaev (anton@traccar.org)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,22 +16,96 @@
 package org.traccar;
 
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.storage.StorageWorkload;
+
+import java.util.concurrent.ThreadFactory;
 
 public final class EventLoopGroupFactory {
 
-    private static EventLoopGroup bossGroup = new NioEventLoopGroup();
-    private static EventLoopGroup workerGroup = new NioEventLoopGroup();
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLoopGroupFactory.class);
+
+    private static boolean epoll;
+    private static EventLoopGroup bossGroup;
+    private static EventLoopGroup workerGroup;
 
     private EventLoopGroupFactory() {
     }
 
+    public static synchronized void init(Config config) {
+        if (bossGroup != null) {
+            return;
+        }
+        int bossThreads = config.getInteger(Keys.SERVER_BOSS_THREADS);
+        int workerThreads = config.getInteger(Keys.SERVER_WORKER_THREADS);
+        if (config.getBoolean(Keys.SERVER_EPOLL)) {
+            if (Epoll.isAvailable()) {
+                epoll = true;
+            } else {
+                LOGGER.warn("Native epoll transport is not available", Epoll.unavailabilityCause());
+            }
+        }
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(bossThreads);
+            workerGroup = new EpollEventLoopGroup(workerThreads, createThreadFactory(EpollEventLoopGroup.class));
+        } else {
+            bossGroup = new NioEventLoopGroup(bossThreads);
+            workerGroup = new NioEventLoopGroup(workerThreads, createThreadFactory(NioEventLoopGroup.class));
+        }
+    }
+
+    private static ThreadFactory createThreadFactory(Class<?> poolType) {
+        ThreadFactory threadFactory = new DefaultThreadFactory(poolType);
+        return runnable -> threadFactory.newThread(StorageWorkload.INGEST.wrap(runnable));
+    }
+
+    private static synchronized void initDefault() {
+        if (bossGroup == null) {
+            bossGroup = new NioEventLoopGroup();
+            workerGroup = new NioEventLoopGroup();
+        }
+    }
+
+    public static boolean isEpoll() {
+        return epoll;
+    }
+
     public static EventLoopGroup getBossGroup() {
+        initDefault();
         return bossGroup;
     }
 
     public static EventLoopGroup getWorkerGroup() {
+        initDefault();
         return workerGroup;
     }
 
+    public static Class<? extends ServerSocketChannel> getServerSocketChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static Class<? extends SocketChannel> getSocketChannelClass() {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    public static Class<? extends DatagramChannel> getDatagramChannelClass() {
+        return epoll ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    }
+
 }
@@ -29,7 +29,9 @@ import org.traccar.model.Position;
 import javax.inject.Inject;
 import java.net.SocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 public abstract class ExtendedObjectDecoder extends ChannelInboundHandlerAdapter {
 
@@ -76,9 +78,20 @@ public abstract class ExtendedObjectDecoder extends ChannelInboundHandlerAdapter
             }
             if (decodedMessage != null) {
                 if (decodedMessage instanceof Collection) {
-                    for (Object o : (Collection) decodedMessage) {
+                    Collection<?> collection = (Collection<?>) decodedMessage;
+                    List<Position> positions = new ArrayList<>(collection.size());
+                    for (Object o : collection) {
                         saveOriginal(o, originalMessage);
-                        ctx.fireChannelRead(o);
+                        if (o instanceof Position) {
+                            positions.add((Position) o);
+                        } else {
+                            ctx.fireChannelRead(o);
+                        }
+                    }
+                    if (positions.size() == 1) {
+                        ctx.fireChannelRead(positions.get(0));
+                    } else if (!positions.isEmpty()) {
+                        ctx.fireChannelRead(positions);
                     }
                 } else {
                     saveOriginal(decodedMessage, originalMessage);
@@ -43,7 +43,9 @@ import org.traccar.api.resource.EmailPayResource;
 import org.traccar.broadcast.BroadcastService;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
+import org.traccar.database.DeviceStateWriter;
 import org.traccar.database.ExtendedManager;
+import org.traccar.database.PositionBatchWriter;
 import org.traccar.helper.model.DeviceUtil;
 import org.traccar.model.Device;
 import org.traccar.model.Permission;
@@ -52,9 +54,11 @@ import org.traccar.schedule.ScheduleManager;
 import org.traccar.sms.SmsClient;
 import org.traccar.sms.SmsToSend;
 import org.traccar.sms.SmsTool;
+import org.traccar.storage.AttributesMigration;
 import org.traccar.storage.DatabaseModule;
 import org.traccar.storage.Storage;
 import org.traccar.storage.StorageException;
+import org.traccar.storage.StorageWorkload;
 import org.traccar.storage.query.Columns;
 import org.traccar.storage.query.Condition;
 import org.traccar.storage.query.Request;
@@ -134,6 +138,9 @@ public final class Main {
                 case "--uninstall":
                     windowsService.uninstall();
                     return;
+                case "--migrate-attributes":
+                    migrateAttributes(configFile);
+                    return;
                 case "--service":
                 default:
                     windowsService.init();
@@ -144,6 +151,11 @@ public final class Main {
         }
     }
 
+    private static void migrateAttributes(String configFile) throws StorageException {
+        injector = Guice.createInjector(new MainModule(configFile), new DatabaseModule(), new WebModule());
+        injector.getInstance(AttributesMigration.class).run();
+    }
+
     public static void run(String configFile) {
         try {
             injector = Guice.createInjector(new MainModule(configFile), new DatabaseModule(), new WebModule());
@@ -156,7 +168,8 @@ public final class Main {
             }
 
             var services = Stream.of(
-                    ServerManager.class, WebServer.class, ScheduleManager.class, BroadcastService.class)
+                    PositionBatchWriter.class, DeviceStateWriter.class, ServerManager.class, WebServer.class,
+                    ScheduleManager.class, BroadcastService.class)
                     .map(injector::getInstance)
                     .filter(Objects::nonNull)
                     .collect(Collectors.toList());
@@ -182,6 +195,7 @@ public final class Main {
            new Timer().scheduleAtFixedRate(new TimerTask() {
                 @Override
                 public void run() {
+                    StorageWorkload.set(StorageWorkload.BACKGROUND);
                     LOGGER.info("APN update run");
                     try {
                         Storage storage = injector.getInstance(Storage.class);
@@ -214,6 +228,7 @@ public final class Main {
 
                 @Override
                 public void run() {
+                    StorageWorkload.set(StorageWorkload.BACKGROUND);
                     LOGGER.info("Send payment requests");
 
                     createDumpUsersFromNotAssignedDevices();
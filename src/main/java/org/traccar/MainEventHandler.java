@@ -18,7 +18,6 @@ package org.traccar;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.timeout.IdleStateEvent;
@@ -26,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
+import org.traccar.database.DeviceStateWriter;
 import org.traccar.database.StatisticsManager;
 import org.traccar.helper.DateUtil;
 import org.traccar.helper.NetworkUtil;
@@ -34,11 +34,7 @@ import org.traccar.model.Device;
 import org.traccar.model.Position;
 import org.traccar.session.ConnectionManager;
 import org.traccar.session.cache.CacheManager;
-import org.traccar.storage.Storage;
 import org.traccar.storage.StorageException;
-import org.traccar.storage.query.Columns;
-import org.traccar.storage.query.Condition;
-import org.traccar.storage.query.Request;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -49,7 +45,7 @@ import java.util.Set;
 
 @Singleton
 @ChannelHandler.Sharable
-public class MainEventHandler extends ChannelInboundHandlerAdapter {
+public class MainEventHandler extends BasePositionHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MainEventHandler.class);
 
@@ -57,16 +53,17 @@ public class MainEventHandler extends ChannelInboundHandlerAdapter {
     private final Set<String> logAttributes = new LinkedHashSet<>();
 
     private final CacheManager cacheManager;
-    private final Storage storage;
+    private final DeviceStateWriter deviceStateWriter;
     private final ConnectionManager connectionManager;
     private final StatisticsManager statisticsManager;
 
     @Inject
     public MainEventHandler(
-            Config config, CacheManager cacheManager, Storage storage, ConnectionManager connectionManager,
+            Config config, CacheManager cacheManager, DeviceStateWriter deviceStateWriter,
+            ConnectionManager connectionManager,
             StatisticsManager statisticsManager) {
         this.cacheManager = cacheManager;
-        this.storage = storage;
+        this.deviceStateWriter = deviceStateWriter;
         this.connectionManager = connectionManager;
         this.statisticsManager = statisticsManager;
         String connectionlessProtocolList = config.getString(Keys.STATUS_IGNORE_OFFLINE);
@@ -77,75 +74,82 @@ public class MainEventHandler extends ChannelInboundHandlerAdapter {
     }
 
     @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) {
-        if (msg instanceof Position) {
+    public boolean isBatchSupported() {
+        return false;
+    }
+
+    @Override
+    public void handlePosition(Channel channel, Position position, Callback callback) {
+        Device device = cacheManager.getObject(Device.class, position.getDeviceId());
 
-            Position position = (Position) msg;
-            Device device = cacheManager.getObject(Device.class, position.getDeviceId());
+        if (position.getId() != 0) {
+            cacheManager.addRecentPosition(position);
+        }
 
-            try {
-                if (PositionUtil.isLatest(cacheManager, position)) {
+        try {
+            if (PositionUtil.isLatest(cacheManager, position)) {
+                if (position.getId() != 0) {
                     Device updatedDevice = new Device();
                     updatedDevice.setId(position.getDeviceId());
                     updatedDevice.setPositionId(position.getId());
-                    storage.updateObject(updatedDevice, new Request(
-                            new Columns.Include("positionId"),
-                            new Condition.Equals("id", updatedDevice.getId())));
-
-                    cacheManager.updatePosition(position);
-                    connectionManager.updatePosition(true, position);
+                    deviceStateWriter.updateDevice(updatedDevice, "positionId");
                 }
-            } catch (StorageException error) {
-                LOGGER.warn("Failed to update device", error);
-            }
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("[").append(NetworkUtil.session(ctx.channel())).append("] ");
-            builder.append("id: ").append(device.getUniqueId());
-            for (String attribute : logAttributes) {
-                switch (attribute) {
-                    case "time":
-                        builder.append(", time: ").append(DateUtil.formatDate(position.getFixTime(), false));
-                        break;
-                    case "position":
-                        builder.append(", lat: ").append(String.format("%.5f", position.getLatitude()));
-                        builder.append(", lon: ").append(String.format("%.5f", position.getLongitude()));
-                        break;
-                    case "speed":
-                        if (position.getSpeed() > 0) {
-                            builder.append(", speed: ").append(String.format("%.1f", position.getSpeed()));
-                        }
-                        break;
-                    case "course":
-                        builder.append(", course: ").append(String.format("%.1f", position.getCourse()));
-                        break;
-                    case "accuracy":
-                        if (position.getAccuracy() > 0) {
-                            builder.append(", accuracy: ").append(String.format("%.1f", position.getAccuracy()));
-                        }
-                        break;
-                    case "outdated":
-                        if (position.getOutdated()) {
-                            builder.append(", outdated");
-                        }
-                        break;
-                    case "invalid":
-                        if (!position.getValid()) {
-                            builder.append(", invalid");
-                        }
-                        break;
-                    default:
-                        Object value = position.getAttributes().get(attribute);
-                        if (value != null) {
-                            builder.append(", ").append(attribute).append(": ").append(value);
-                        }
-                        break;
-                }
+                cacheManager.updatePosition(position);
+                connectionManager.updatePosition(true, position);
             }
-            LOGGER.info(builder.toString());
+        } catch (StorageException error) {
+            LOGGER.warn("Failed to update device", error);
+        }
 
-            statisticsManager.registerMessageStored(position.getDeviceId(), position.getProtocol());
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(NetworkUtil.session(channel)).append("] ");
+        builder.append("id: ").append(device.getUniqueId());
+        for (String attribute : logAttributes) {
+            switch (attribute) {
+                case "time":
+                    builder.append(", time: ").append(DateUtil.formatDate(position.getFixTime(), false));
+                    break;
+                case "position":
+                    builder.append(", lat: ").append(String.format("%.5f", position.getLatitude()));
+                    builder.append(", lon: ").append(String.format("%.5f", position.getLongitude()));
+                    break;
+                case "speed":
+                    if (position.getSpeed() > 0) {
+                        builder.append(", speed: ").append(String.format("%.1f", position.getSpeed()));
+                    }
+                    break;
+                case "course":
+                    builder.append(", course: ").append(String.format("%.1f", position.getCourse()));
+                    break;
+                case "accuracy":
+                    if (position.getAccuracy() > 0) {
+                        builder.append(", accuracy: ").append(String.format("%.1f", position.getAccuracy()));
+                    }
+                    break;
+                case "outdated":
+                    if (position.getOutdated()) {
+                        builder.append(", outdated");
+                    }
+                    break;
+                case "invalid":
+                    if (!position.getValid()) {
+                        builder.append(", invalid");
+                    }
+                    break;
+                default:
+                    Object value = position.getAttributes().get(attribute);
+                    if (value != null) {
+                        builder.append(", ").append(attribute).append(": ").append(value);
+                    }
+                    break;
+            }
         }
+        LOGGER.info(builder.toString());
+
+        statisticsManager.registerMessageStored(position.getDeviceId(), position.getProtocol());
+
+        callback.processed(position);
     }
 
     @Override
@@ -34,7 +34,10 @@ import org.traccar.broadcast.NullBroadcastService;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
 import org.traccar.database.LdapProvider;
+import org.traccar.database.PositionBatchWriter;
+import org.traccar.database.PositionStore;
 import org.traccar.database.StatisticsManager;
+import org.traccar.database.StoragePressure;
 import org.traccar.geocoder.AddressFormat;
 import org.traccar.geocoder.BanGeocoder;
 import org.traccar.geocoder.BingMapsGeocoder;
@@ -268,6 +271,26 @@ public class MainModule extends AbstractModule {
         return null;
     }
 
+    @Singleton
+    @Provides
+    public static DeviceEventExecutor provideDeviceEventExecutor(Config config) {
+        int threads = config.getInteger(Keys.SERVER_PROCESSING_THREADS);
+        if (threads > 0) {
+            return new DeviceEventExecutor(threads);
+        }
+        return null;
+    }
+
+    @Singleton
+    @Provides
+    public static PositionBatchWriter providePositionBatchWriter(
+            Config config, PositionStore positionStore, StoragePressure storagePressure) {
+        if (config.getBoolean(Keys.DATABASE_BATCH_ENABLE)) {
+            return new PositionBatchWriter(config, positionStore, storagePressure);
+        }
+        return null;
+    }
+
     @Singleton
     @Provides
     public static GeolocationHandler provideGeolocationHandler(
@@ -47,6 +47,7 @@ public class ServerManager implements LifecycleObject {
     @Inject
     public ServerManager(
             Injector injector, Config config) throws IOException, URISyntaxException, ReflectiveOperationException {
+        EventLoopGroupFactory.init(config);
         Set<String> enabledProtocols = null;
         if (config.hasKey(Keys.PROTOCOLS_ENABLE)) {
             enabledProtocols = new HashSet<>(Arrays.asList(config.getString(Keys.PROTOCOLS_ENABLE).split("[, ]")));
@@ -18,7 +18,6 @@ package org.traccar;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
@@ -86,7 +85,7 @@ public abstract class TrackerClient implements TrackerConnector {
 
         bootstrap = new Bootstrap()
                 .group(EventLoopGroupFactory.getWorkerGroup())
-                .channel(NioSocketChannel.class)
+                .channel(EventLoopGroupFactory.getSocketChannelClass())
                 .handler(pipelineFactory);
     }
 
@@ -19,12 +19,13 @@ import io.netty.bootstrap.AbstractBootstrap;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.socket.nio.NioDatagramChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.concurrent.GlobalEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
 
@@ -34,6 +35,8 @@ import java.net.InetSocketAddress;
 
 public abstract class TrackerServer implements TrackerConnector {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrackerServer.class);
+
     private final boolean datagram;
     private final boolean secure;
 
@@ -42,6 +45,7 @@ public abstract class TrackerServer implements TrackerConnector {
 
     private final int port;
     private final String address;
+    private final int channels;
 
     private final ChannelGroup channelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
 
@@ -81,14 +85,25 @@ public abstract class TrackerServer implements TrackerConnector {
 
         this.datagram = datagram;
         if (datagram) {
-            bootstrap = new Bootstrap()
+            int datagramChannels = config.getInteger(Keys.PROTOCOL_DATAGRAM_CHANNELS.withPrefix(protocol));
+            if (datagramChannels > 1 && !EventLoopGroupFactory.isEpoll()) {
+                LOGGER.warn("Multiple datagram channels require epoll transport, protocol {}", protocol);
+                datagramChannels = 1;
+            }
+            channels = Math.max(datagramChannels, 1);
+            Bootstrap datagramBootstrap = new Bootstrap()
                     .group(EventLoopGroupFactory.getWorkerGroup())
-                    .channel(NioDatagramChannel.class)
+                    .channel(EventLoopGroupFactory.getDatagramChannelClass())
                     .handler(pipelineFactory);
+            if (channels > 1) {
+                datagramBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            bootstrap = datagramBootstrap;
         } else {
+            channels = 1;
             bootstrap = new ServerBootstrap()
                     .group(EventLoopGroupFactory.getBossGroup(), EventLoopGroupFactory.getWorkerGroup())
-                    .channel(NioServerSocketChannel.class)
+                    .channel(EventLoopGroupFactory.getServerSocketChannelClass())
                     .childHandler(pipelineFactory);
         }
     }
@@ -117,9 +132,11 @@ public abstract class TrackerServer implements TrackerConnector {
             endpoint = new InetSocketAddress(address, port);
         }
 
-        Channel channel = bootstrap.bind(endpoint).syncUninterruptibly().channel();
-        if (channel != null) {
-            getChannelGroup().add(channel);
+        for (int i = 0; i < channels; i++) {
+            Channel channel = bootstrap.bind(endpoint).syncUninterruptibly().channel();
+            if (channel != null) {
+                getChannelGroup().add(channel);
+            }
         }
     }
 
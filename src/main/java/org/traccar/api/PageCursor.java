@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.api;
+
+import org.traccar.storage.query.Condition;
+
+import java.util.Date;
+
+/**
+ * Position in a keyset paginated list. Encoded as the time of the last returned item in milliseconds and its id,
+ * separated by a colon. The next cursor is returned in a response header when the page is full.
+ */
+public final class PageCursor {
+
+    public static final String HEADER = "X-Next-Cursor";
+
+    private final Date time;
+    private final long id;
+
+    public PageCursor(Date time, long id) {
+        this.time = time;
+        this.id = id;
+    }
+
+    public static PageCursor parse(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        int index = value.indexOf(':');
+        try {
+            return new PageCursor(
+                    new Date(Long.parseLong(value.substring(0, index))), Long.parseLong(value.substring(index + 1)));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid cursor " + value, e);
+        }
+    }
+
+    public Condition.Keyset getCondition(String column) {
+        return new Condition.Keyset(column, time, id);
+    }
+
+    public static Condition.Keyset getCondition(String column, String value) {
+        PageCursor cursor = parse(value);
+        return cursor != null ? cursor.getCondition(column) : null;
+    }
+
+    @Override
+    public String toString() {
+        return time.getTime() + ":" + id;
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.api;
+
+import org.traccar.storage.StorageWorkload;
+
+import javax.inject.Singleton;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * Assigns storage workload to API requests. Reports and position history exports use the reports workload, all other
+ * requests use the API workload. Request threads are pooled, so the workload is set for every request.
+ */
+@Singleton
+@PreMatching
+public class StorageWorkloadFilter implements ContainerRequestFilter {
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        UriInfo uriInfo = requestContext.getUriInfo();
+        String path = uriInfo.getPath();
+        if (path.startsWith("reports")
+                || path.startsWith("positions") && uriInfo.getQueryParameters().containsKey("from")) {
+            StorageWorkload.set(StorageWorkload.REPORTS);
+        } else {
+            StorageWorkload.set(StorageWorkload.API);
+        }
+    }
+
+}
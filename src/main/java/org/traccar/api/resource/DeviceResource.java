@@ -17,6 +17,7 @@ package org.traccar.api.resource;
 
 import org.traccar.api.BaseObjectResource;
 import org.traccar.broadcast.BroadcastService;
+import org.traccar.database.DeviceLookupService;
 import org.traccar.database.MediaManager;
 import org.traccar.helper.LogAction;
 import org.traccar.model.Device;
@@ -67,6 +68,9 @@ public class DeviceResource extends BaseObjectResource<Device> {
     @Inject
     private MediaManager mediaManager;
 
+    @Inject
+    private DeviceLookupService deviceLookupService;
+
     public DeviceResource() {
         super(Device.class);
     }
@@ -118,6 +122,27 @@ public class DeviceResource extends BaseObjectResource<Device> {
         }
     }
 
+    @Override
+    public Response add(Device entity) throws StorageException {
+        Response response = super.add(entity);
+        deviceLookupService.updateDevice(entity);
+        return response;
+    }
+
+    @Override
+    public Response update(Device entity) throws StorageException {
+        Response response = super.update(entity);
+        deviceLookupService.updateDevice(entity);
+        return response;
+    }
+
+    @Override
+    public Response remove(long id) throws StorageException {
+        Response response = super.remove(id);
+        deviceLookupService.removeDevice(id);
+        return response;
+    }
+
     @Path("{id}/accumulators")
     @PUT
     public Response updateAccumulators(DeviceAccumulators entity) throws StorageException {
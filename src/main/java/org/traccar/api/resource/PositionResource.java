@@ -16,6 +16,7 @@
 package org.traccar.api.resource;
 
 import org.traccar.api.BaseResource;
+import org.traccar.api.PageCursor;
 import org.traccar.helper.model.PositionUtil;
 import org.traccar.model.Device;
 import org.traccar.model.Position;
@@ -40,7 +41,6 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -59,9 +59,10 @@ public class PositionResource extends BaseResource {
     private GpxExportProvider gpxExportProvider;
 
     @GET
-    public Collection<Position> getJson(
+    public Response getJson(
             @QueryParam("deviceId") long deviceId, @QueryParam("id") List<Long> positionIds,
-            @QueryParam("from") Date from, @QueryParam("to") Date to)
+            @QueryParam("from") Date from, @QueryParam("to") Date to,
+            @QueryParam("limit") int limit, @QueryParam("cursor") String cursor)
             throws StorageException {
         if (!positionIds.isEmpty()) {
             var positions = new ArrayList<Position>();
@@ -71,21 +72,35 @@ public class PositionResource extends BaseResource {
                 permissionsService.checkPermission(Device.class, getUserId(), position.getDeviceId());
                 positions.add(position);
             }
-            return positions;
+            return Response.ok(positions).build();
         } else if (deviceId > 0) {
             permissionsService.checkPermission(Device.class, getUserId(), deviceId);
             if (from != null && to != null) {
                 permissionsService.checkRestriction(getUserId(), UserRestrictions::getDisableReports);
-                return PositionUtil.getPositions(storage, deviceId, from, to);
+                if (limit > 0) {
+                    var positions = PositionUtil.getPositions(
+                            storage, List.of(deviceId), from, to, PageCursor.getCondition("fixTime", cursor), limit);
+                    return getPage(positions, limit);
+                }
+                return Response.ok(PositionUtil.getPositions(storage, deviceId, from, to)).build();
             } else {
-                return storage.getObjects(Position.class, new Request(
-                        new Columns.All(), new Condition.LatestPositions(deviceId)));
+                return Response.ok(storage.getObjects(Position.class, new Request(
+                        new Columns.All(), new Condition.LatestPositions(deviceId)))).build();
             }
         } else {
-            return PositionUtil.getLatestPositions(storage, getUserId());
+            return Response.ok(PositionUtil.getLatestPositions(storage, getUserId())).build();
         }
     }
 
+    static Response getPage(List<Position> positions, int limit) {
+        Response.ResponseBuilder response = Response.ok(positions);
+        if (positions.size() >= limit) {
+            Position last = positions.get(positions.size() - 1);
+            response.header(PageCursor.HEADER, new PageCursor(last.getFixTime(), last.getId()).toString());
+        }
+        return response.build();
+    }
+
     @Path("kml")
     @GET
     @Produces("application/vnd.google-earth.kml+xml")
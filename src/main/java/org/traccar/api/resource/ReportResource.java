@@ -19,10 +19,10 @@ package org.traccar.api.resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.api.BaseResource;
+import org.traccar.api.PageCursor;
 import org.traccar.mail.MailManager;
 import org.traccar.helper.LogAction;
 import org.traccar.model.Event;
-import org.traccar.model.Position;
 import org.traccar.model.User;
 import org.traccar.model.UserRestrictions;
 import org.traccar.reports.EventsReportProvider;
@@ -34,6 +34,7 @@ import org.traccar.reports.model.StopReportItem;
 import org.traccar.reports.model.SummaryReportItem;
 import org.traccar.reports.model.TripReportItem;
 import org.traccar.storage.StorageException;
+import org.traccar.storage.StorageWorkload;
 
 import javax.activation.DataHandler;
 import javax.inject.Inject;
@@ -54,6 +55,7 @@ import javax.ws.rs.core.StreamingOutput;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -92,7 +94,7 @@ public class ReportResource extends BaseResource {
     private Response executeReport(
             long userId, boolean mail, ReportExecutor executor) {
         if (mail) {
-            new Thread(() -> {
+            new Thread(StorageWorkload.REPORTS.wrap(() -> {
                 try {
                     var stream = new ByteArrayOutputStream();
                     executor.execute(stream);
@@ -107,7 +109,7 @@ public class ReportResource extends BaseResource {
                 } catch (StorageException | IOException | MessagingException e) {
                     LOGGER.warn("Report failed", e);
                 }
-            }).start();
+            })).start();
             return Response.noContent().build();
         } else {
             StreamingOutput stream = output -> {
@@ -124,14 +126,29 @@ public class ReportResource extends BaseResource {
 
     @Path("route")
     @GET
-    public Collection<Position> getRoute(
+    public Response getRoute(
             @QueryParam("deviceId") List<Long> deviceIds,
             @QueryParam("groupId") List<Long> groupIds,
             @QueryParam("from") Date from,
-            @QueryParam("to") Date to) throws StorageException {
+            @QueryParam("to") Date to,
+            @QueryParam("limit") int limit,
+            @QueryParam("cursor") String cursor) throws StorageException {
         permissionsService.checkRestriction(getUserId(), UserRestrictions::getDisableReports);
         LogAction.logReport(getUserId(), "route", from, to, deviceIds, groupIds);
-        return routeReportProvider.getObjects(getUserId(), deviceIds, groupIds, from, to);
+        long userId = getUserId();
+        if (limit > 0) {
+            var positions = routeReportProvider.getObjects(
+                    userId, deviceIds, groupIds, from, to, PageCursor.getCondition("fixTime", cursor), limit);
+            return PositionResource.getPage(positions, limit);
+        }
+        StreamingOutput stream = output -> {
+            try {
+                routeReportProvider.getJson(output, userId, deviceIds, groupIds, from, to);
+            } catch (StorageException e) {
+                throw new WebApplicationException(e);
+            }
+        };
+        return Response.ok(stream).build();
     }
 
     @Path("route")
@@ -164,15 +181,34 @@ public class ReportResource extends BaseResource {
 
     @Path("events")
     @GET
-    public Collection<Event> getEvents(
+    public Response getEvents(
             @QueryParam("deviceId") List<Long> deviceIds,
             @QueryParam("groupId") List<Long> groupIds,
             @QueryParam("type") List<String> types,
             @QueryParam("from") Date from,
-            @QueryParam("to") Date to) throws StorageException {
+            @QueryParam("to") Date to,
+            @QueryParam("limit") int limit,
+            @QueryParam("cursor") String cursor) throws StorageException {
         permissionsService.checkRestriction(getUserId(), UserRestrictions::getDisableReports);
         LogAction.logReport(getUserId(), "events", from, to, deviceIds, groupIds);
-        return eventsReportProvider.getObjects(getUserId(), deviceIds, groupIds, types, from, to);
+        if (limit > 0) {
+            var events = eventsReportProvider.getObjects(
+                    getUserId(), deviceIds, groupIds, types, from, to,
+                    PageCursor.getCondition("eventTime", cursor), limit);
+            var result = new ArrayList<Event>();
+            for (Event event : events) {
+                if (eventsReportProvider.isAccessible(getUserId(), event)) {
+                    result.add(event);
+                }
+            }
+            Response.ResponseBuilder response = Response.ok(result);
+            if (events.size() >= limit) {
+                Event last = events.get(events.size() - 1);
+                response.header(PageCursor.HEADER, new PageCursor(last.getEventTime(), last.getId()).toString());
+            }
+            return response.build();
+        }
+        return Response.ok(eventsReportProvider.getObjects(getUserId(), deviceIds, groupIds, types, from, to)).build();
     }
 
     @Path("events")
@@ -17,12 +17,15 @@ package org.traccar.api.resource;
 
 import org.traccar.api.BaseResource;
 import org.traccar.model.Statistics;
+import org.traccar.storage.PoolMetrics;
+import org.traccar.storage.QueryMetrics;
 import org.traccar.storage.StorageException;
 import org.traccar.storage.query.Columns;
 import org.traccar.storage.query.Condition;
 import org.traccar.storage.query.Order;
 import org.traccar.storage.query.Request;
 
+import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -31,12 +34,20 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Path("statistics")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 public class StatisticsResource extends BaseResource {
 
+    @Inject
+    private PoolMetrics poolMetrics;
+
+    @Inject
+    private QueryMetrics queryMetrics;
+
     @GET
     public Collection<Statistics> get(
             @QueryParam("from") Date from, @QueryParam("to") Date to) throws StorageException {
@@ -47,4 +58,14 @@ public class StatisticsResource extends BaseResource {
                 new Order("captureTime")));
     }
 
+    @Path("database")
+    @GET
+    public Map<String, Object> getDatabase() throws StorageException {
+        permissionsService.checkAdmin(getUserId());
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("pools", poolMetrics.getPools());
+        result.put("queries", queryMetrics.getStatements());
+        return result;
+    }
+
 }
@@ -52,6 +52,16 @@ public final class Keys {
             ".interval",
             List.of(KeyType.CONFIG));
 
+    /**
+     * Number of UDP channels bound to the protocol port. Values above one require native epoll transport, which
+     * allows multiple sockets to share the port using SO_REUSEPORT, so incoming datagrams are spread between several
+     * network threads.
+     */
+    public static final ConfigSuffix<Integer> PROTOCOL_DATAGRAM_CHANNELS = new IntegerConfigSuffix(
+            ".datagramChannels",
+            List.of(KeyType.CONFIG),
+            1);
+
     /**
      * Enable SSL support for the protocol. Not all protocols support this.
      */
@@ -292,6 +302,39 @@ public final class Keys {
             "server.timeout",
             List.of(KeyType.CONFIG));
 
+    /**
+     * Use native epoll network transport on Linux. If the native library is not available, the server falls back to
+     * the default NIO transport.
+     */
+    public static final ConfigKey<Boolean> SERVER_EPOLL = new BooleanConfigKey(
+            "server.epoll",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Number of threads accepting incoming TCP connections. By default Netty selects the value based on the number
+     * of available processors.
+     */
+    public static final ConfigKey<Integer> SERVER_BOSS_THREADS = new IntegerConfigKey(
+            "server.bossThreads",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Number of network threads handling connection I/O and protocol decoding. By default Netty selects the value
+     * based on the number of available processors.
+     */
+    public static final ConfigKey<Integer> SERVER_WORKER_THREADS = new IntegerConfigKey(
+            "server.workerThreads",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Number of threads used for processing decoded positions. If set, position handlers run on a separate thread
+     * pool instead of the network event loops. Positions are distributed between threads by device id, so the order
+     * of records from each device is preserved. By default processing happens on the network threads.
+     */
+    public static final ConfigKey<Integer> SERVER_PROCESSING_THREADS = new IntegerConfigKey(
+            "server.processingThreads",
+            List.of(KeyType.CONFIG));
+
     /**
      * Address for uploading aggregated anonymous usage statistics. Uploaded information is the same you can see on the
      * statistics screen in the web app. It does not include any sensitive (e.g. locations).
@@ -435,6 +478,52 @@ public final class Keys {
             "database.maxPoolSize",
             List.of(KeyType.CONFIG));
 
+    /**
+     * Size of a dedicated connection pool for storing incoming device data. By default, the shared pool is used.
+     */
+    public static final ConfigKey<Integer> DATABASE_INGEST_POOL_SIZE = new IntegerConfigKey(
+            "database.ingest.maxPoolSize",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Size of a dedicated connection pool for API requests. By default, the shared pool is used.
+     */
+    public static final ConfigKey<Integer> DATABASE_API_POOL_SIZE = new IntegerConfigKey(
+            "database.api.maxPoolSize",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Size of a dedicated connection pool for reports and exports. By default, the shared pool is used.
+     */
+    public static final ConfigKey<Integer> DATABASE_REPORTS_POOL_SIZE = new IntegerConfigKey(
+            "database.reports.maxPoolSize",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Size of a dedicated connection pool for scheduled and background tasks. By default, the shared pool is used.
+     */
+    public static final ConfigKey<Integer> DATABASE_BACKGROUND_POOL_SIZE = new IntegerConfigKey(
+            "database.background.maxPoolSize",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Maximum duration of a streaming query in seconds. Streaming queries are used for exports and reports and keep a
+     * connection and a transaction open until the whole result is sent to the client, so slow clients are cut off
+     * after this time. Default value is 10 minutes.
+     */
+    public static final ConfigKey<Integer> DATABASE_STREAM_TIMEOUT = new IntegerConfigKey(
+            "database.streamTimeout",
+            List.of(KeyType.CONFIG),
+            600);
+
+    /**
+     * Optional JDBC URL of a read-only database replica. If set, reports are executed against the replica using a
+     * separate read-only connection pool. User and password are the same as for the main database.
+     */
+    public static final ConfigKey<String> DATABASE_REPLICA_URL = new StringConfigKey(
+            "database.replicaUrl",
+            List.of(KeyType.CONFIG));
+
     /**
      * SQL query to check connection status. Default value is 'SELECT 1'. For Oracle database you can use
      * 'SELECT 1 FROM DUAL'.
@@ -487,6 +576,169 @@ public final class Keys {
             "database.saveEmpty",
             List.of(KeyType.CONFIG));
 
+    /**
+     * Store positions in batches instead of inserting each position separately. Positions are queued and written to
+     * the database using JDBC batch updates in a single transaction.
+     */
+    public static final ConfigKey<Boolean> DATABASE_BATCH_ENABLE = new BooleanConfigKey(
+            "database.batch.enable",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Maximum number of positions in a single batch. Default value is 100.
+     */
+    public static final ConfigKey<Integer> DATABASE_BATCH_SIZE = new IntegerConfigKey(
+            "database.batch.size",
+            List.of(KeyType.CONFIG),
+            100);
+
+    /**
+     * Maximum time in milliseconds a queued position waits for the batch to fill up before it is written. Default
+     * value is 50 milliseconds.
+     */
+    public static final ConfigKey<Long> DATABASE_BATCH_LINGER = new LongConfigKey(
+            "database.batch.linger",
+            List.of(KeyType.CONFIG),
+            50L);
+
+    /**
+     * Number of queued positions after which server stops reading from the device connections until the queue is
+     * drained. The queue never grows beyond this size, if it's full new positions wait for free space. Default value
+     * is 10000.
+     */
+    public static final ConfigKey<Integer> DATABASE_BATCH_QUEUE_SIZE = new IntegerConfigKey(
+            "database.batch.queueSize",
+            List.of(KeyType.CONFIG),
+            10000);
+
+    /**
+     * Store position batches using binary COPY instead of INSERT statements. Only supported on PostgreSQL. Useful for
+     * history imports and large backlogs.
+     */
+    public static final ConfigKey<Boolean> DATABASE_BATCH_COPY = new BooleanConfigKey(
+            "database.batch.copy",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Store position, device and event attributes in a compact binary format instead of JSON. Existing JSON values
+     * are still read, so the option can be enabled at any time. Use the '--migrate-attributes' command line option to
+     * convert existing rows to the configured format.
+     */
+    public static final ConfigKey<Boolean> DATABASE_BINARY_ATTRIBUTES = new BooleanConfigKey(
+            "database.binaryAttributes",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Enable storage backpressure. When the database falls behind, the server stops reading from the busiest device
+     * connections until the load goes down. Load is estimated from the connection pool wait time and the number of
+     * positions waiting to be written.
+     */
+    public static final ConfigKey<Boolean> DATABASE_BACKPRESSURE_ENABLE = new BooleanConfigKey(
+            "database.backpressure.enable",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Average connection pool wait time in milliseconds that is considered an overload. Default value is 200
+     * milliseconds.
+     */
+    public static final ConfigKey<Long> DATABASE_BACKPRESSURE_WAIT = new LongConfigKey(
+            "database.backpressure.wait",
+            List.of(KeyType.CONFIG),
+            200L);
+
+    /**
+     * Number of positions waiting to be written that is considered an overload. Default value is 2000.
+     */
+    public static final ConfigKey<Integer> DATABASE_BACKPRESSURE_WRITES = new IntegerConfigKey(
+            "database.backpressure.writes",
+            List.of(KeyType.CONFIG),
+            2000);
+
+    /**
+     * Number of the busiest connections paused on each check while the database is overloaded. Default value is 10.
+     */
+    public static final ConfigKey<Integer> DATABASE_BACKPRESSURE_CHANNELS = new IntegerConfigKey(
+            "database.backpressure.channels",
+            List.of(KeyType.CONFIG),
+            10);
+
+    /**
+     * Storage load check interval in milliseconds. Default value is 1000 milliseconds.
+     */
+    public static final ConfigKey<Long> DATABASE_BACKPRESSURE_INTERVAL = new LongConfigKey(
+            "database.backpressure.interval",
+            List.of(KeyType.CONFIG),
+            1000L);
+
+    /**
+     * Interval in milliseconds for writing frequently changing device state (status, last update, latest position,
+     * motion, overspeed and geofence state) to the database. Changes are merged in memory and written in batches.
+     * Live updates are still sent immediately. By default every change is written to the database right away.
+     */
+    public static final ConfigKey<Long> DATABASE_DEVICE_WRITE_INTERVAL = new LongConfigKey(
+            "database.deviceWriteInterval",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Partition positions and events tables by month. Supported on PostgreSQL and MySQL. Existing tables are converted
+     * on the first start, which locks the tables and can take a long time on large databases. Existing data is kept
+     * as a single partition. On MySQL the device foreign keys are removed because partitioned tables don't support
+     * them, so positions and events of a removed device are deleted explicitly instead.
+     */
+    public static final ConfigKey<Boolean> DATABASE_PARTITION_ENABLE = new BooleanConfigKey(
+            "database.partition.enable",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Number of months ahead to create partitions for. Default value is 3.
+     */
+    public static final ConfigKey<Integer> DATABASE_PARTITION_AHEAD = new IntegerConfigKey(
+            "database.partition.ahead",
+            List.of(KeyType.CONFIG),
+            3);
+
+    /**
+     * Retention period for positions and events in days. Partitions are dropped once all the data they can contain is
+     * older than the retention period. By default data is kept forever.
+     */
+    public static final ConfigKey<Integer> DATABASE_PARTITION_RETENTION = new IntegerConfigKey(
+            "database.partition.retention",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Directory for the position archive. If set, positions older than the archive age are periodically moved from
+     * the database into compressed daily files per device. Archived positions are still returned in history and
+     * reports.
+     */
+    public static final ConfigKey<String> DATABASE_ARCHIVE_PATH = new StringConfigKey(
+            "database.archive.path",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Age of positions in days after which they are moved to the archive. Default value is 90 days.
+     */
+    public static final ConfigKey<Integer> DATABASE_ARCHIVE_AGE = new IntegerConfigKey(
+            "database.archive.age",
+            List.of(KeyType.CONFIG),
+            90);
+
+    /**
+     * File for the snapshot of the latest device positions. If set, the snapshot is written periodically and on
+     * shutdown. After a restart, positions are restored from the snapshot instead of the database when the position id
+     * still matches the device.
+     */
+    public static final ConfigKey<String> DATABASE_SNAPSHOT_PATH = new StringConfigKey(
+            "database.snapshot.path",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Position snapshot interval in seconds. Default value is 5 minutes.
+     */
+    public static final ConfigKey<Long> DATABASE_SNAPSHOT_INTERVAL = new LongConfigKey(
+            "database.snapshot.interval",
+            List.of(KeyType.CONFIG),
+            300L);
+
     /**
      * Device limit for self registered users. Default value is -1, which indicates no limit.
      */
@@ -1266,6 +1518,34 @@ public final class Keys {
             "processing.copyAttributes",
             List.of(KeyType.CONFIG, KeyType.DEVICE));
 
+    /**
+     * Enable lightweight processing of historical data. Positions older than the latest known position of the device
+     * (or older than the configured age) skip geocoding, filtering and event detection. They are stored in batches
+     * with distance calculated against the preceding stored position, and total distance of positions received after
+     * them is recalculated.
+     */
+    public static final ConfigKey<Boolean> PROCESSING_BACKLOG_ENABLE = new BooleanConfigKey(
+            "processing.backlog.enable",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Age in seconds after which positions are considered historical even if they are newer than the latest known
+     * position. By default only positions older than the latest one are treated as historical.
+     */
+    public static final ConfigKey<Long> PROCESSING_BACKLOG_AGE = new LongConfigKey(
+            "processing.backlog.age",
+            List.of(KeyType.CONFIG));
+
+    /**
+     * Number of recent positions kept in memory for each connected device. Recent positions are used to find the
+     * preceding position for relative filtering, distance and engine hours calculation without querying the database.
+     * Disabled by default.
+     */
+    public static final ConfigKey<Integer> PROCESSING_RECENT_POSITIONS = new IntegerConfigKey(
+            "processing.recentPositions",
+            List.of(KeyType.CONFIG),
+            0);
+
     /**
      * Enable computed attributes processing.
      */
@@ -1517,6 +1797,14 @@ public final class Keys {
             "logger.queries",
             List.of(KeyType.CONFIG));
 
+    /**
+     * Log SQL queries that take longer than the given number of milliseconds, including bind values. Execution time
+     * includes reading of the results. Disabled by default.
+     */
+    public static final ConfigKey<Long> LOGGER_SLOW_QUERIES = new LongConfigKey(
+            "logger.slowQueries",
+            List.of(KeyType.CONFIG));
+
     /**
      * Log file name. For rotating logs, a date is added at the end of the file name for non-current logs.
      */
@@ -16,6 +16,8 @@
  */
 package org.traccar.database;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.traccar.BaseProtocol;
 import org.traccar.ServerManager;
 import org.traccar.broadcast.BroadcastInterface;
@@ -38,17 +40,25 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Singleton
 public class CommandsManager implements BroadcastInterface {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommandsManager.class);
+
     private final Storage storage;
     private final ServerManager serverManager;
     private final SmsManager smsManager;
     private final ConnectionManager connectionManager;
     private final BroadcastService broadcastService;
 
+    private final Set<Long> queuedDevices = ConcurrentHashMap.newKeySet();
+    private boolean queuedDevicesLoaded;
+
     @Inject
     public CommandsManager(
             Storage storage, ServerManager serverManager, @Nullable SmsManager smsManager,
@@ -59,6 +69,21 @@ public class CommandsManager implements BroadcastInterface {
         this.connectionManager = connectionManager;
         this.broadcastService = broadcastService;
         broadcastService.registerListener(this);
+        loadQueuedDevices();
+    }
+
+    private void loadQueuedDevices() {
+        try {
+            storage.getObjects(QueuedCommand.class, new Request(new Columns.Include("deviceId")))
+                    .forEach(command -> queuedDevices.add(command.getDeviceId()));
+            queuedDevicesLoaded = true;
+        } catch (StorageException e) {
+            LOGGER.warn("Failed to load queued commands", e);
+        }
+    }
+
+    public boolean hasQueuedCommands(long deviceId) {
+        return !queuedDevicesLoaded || queuedDevices.contains(deviceId);
     }
 
     public boolean sendCommand(Command command) throws Exception {
@@ -85,6 +110,7 @@ public class CommandsManager implements BroadcastInterface {
                 deviceSession.sendCommand(command);
             } else {
                 storage.addObject(QueuedCommand.fromCommand(command), new Request(new Columns.Exclude("id")));
+                queuedDevices.add(deviceId);
                 broadcastService.updateCommand(true, deviceId);
                 return false;
             }
@@ -97,23 +123,35 @@ public class CommandsManager implements BroadcastInterface {
     }
 
     public Collection<Command> readQueuedCommands(long deviceId, int count) {
+        if (!hasQueuedCommands(deviceId)) {
+            return Collections.emptyList();
+        }
+        queuedDevices.remove(deviceId);
         try {
             var commands = storage.getObjects(QueuedCommand.class, new Request(
                     new Columns.All(),
                     new Condition.Equals("deviceId", deviceId),
                     new Order("id", false, count)));
-            for (var command : commands) {
+            if (!commands.isEmpty()) {
+                long lastId = commands.get(commands.size() - 1).getId();
                 storage.removeObject(QueuedCommand.class, new Request(
-                        new Condition.Equals("id", command.getId())));
+                        new Condition.And(
+                                new Condition.Equals("deviceId", deviceId),
+                                new Condition.Compare("id", "<=", "id", lastId))));
+            }
+            if (commands.size() >= count) {
+                queuedDevices.add(deviceId);
             }
             return commands.stream().map(QueuedCommand::toCommand).collect(Collectors.toList());
         } catch (StorageException e) {
+            queuedDevices.add(deviceId);
             throw new RuntimeException(e);
         }
     }
 
     @Override
     public void updateCommand(boolean local, long deviceId) {
+        queuedDevices.add(deviceId);
         if (!local) {
             DeviceSession deviceSession = connectionManager.getDeviceSession(deviceId);
             if (deviceSession != null && deviceSession.supportsLiveCommands()) {
@@ -20,7 +20,11 @@ import io.netty.util.Timer;
 import io.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.traccar.broadcast.BroadcastInterface;
+import org.traccar.broadcast.BroadcastService;
+import org.traccar.model.BaseModel;
 import org.traccar.model.Device;
+import org.traccar.session.cache.CacheManager;
 import org.traccar.storage.Storage;
 import org.traccar.storage.StorageException;
 import org.traccar.storage.query.Columns;
@@ -33,8 +37,13 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Finds devices by unique identifiers. Identifiers of all devices are kept in memory, so known devices are resolved
+ * without a storage query if they are already in the cache, and with a primary key query otherwise. Unknown
+ * identifiers are still looked up in storage, with throttling for repeated failures.
+ */
 @Singleton
-public class DeviceLookupService {
+public class DeviceLookupService implements BroadcastInterface {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DeviceLookupService.class);
 
@@ -44,6 +53,10 @@ public class DeviceLookupService {
 
     private final Storage storage;
     private final Timer timer;
+    private final CacheManager cacheManager;
+
+    private final Map<String, Long> deviceIds = new ConcurrentHashMap<>();
+    private final Map<Long, String> uniqueIds = new ConcurrentHashMap<>();
 
     private static class IdentifierInfo {
         private long lastQuery;
@@ -70,9 +83,82 @@ public class DeviceLookupService {
     private final Map<String, IdentifierInfo> identifierMap = new ConcurrentHashMap<>();
 
     @Inject
-    public DeviceLookupService(Storage storage, Timer timer) {
+    public DeviceLookupService(
+            Storage storage, Timer timer, CacheManager cacheManager,
+            BroadcastService broadcastService) throws StorageException {
         this.storage = storage;
         this.timer = timer;
+        this.cacheManager = cacheManager;
+        for (Device device : storage.getObjects(Device.class, new Request(new Columns.Include("id", "uniqueId")))) {
+            updateDevice(device);
+        }
+        broadcastService.registerListener(this);
+    }
+
+    /**
+     * Update identifier of a created or modified device.
+     */
+    public void updateDevice(Device device) {
+        synchronized (deviceIds) {
+            String previous = uniqueIds.put(device.getId(), device.getUniqueId());
+            if (previous != null && !previous.equals(device.getUniqueId())) {
+                deviceIds.remove(previous, device.getId());
+            }
+            deviceIds.put(device.getUniqueId(), device.getId());
+        }
+        lookupSucceeded(device.getUniqueId());
+    }
+
+    public void removeDevice(long deviceId) {
+        synchronized (deviceIds) {
+            String uniqueId = uniqueIds.remove(deviceId);
+            if (uniqueId != null) {
+                deviceIds.remove(uniqueId, deviceId);
+            }
+        }
+    }
+
+    private void refreshDevice(long deviceId) {
+        try {
+            Device device = storage.getObject(Device.class, new Request(
+                    new Columns.Include("id", "uniqueId"), new Condition.Equals("id", deviceId)));
+            if (device != null) {
+                updateDevice(device);
+            } else {
+                removeDevice(deviceId);
+            }
+        } catch (StorageException e) {
+            LOGGER.warn("Device identifier update error", e);
+        }
+    }
+
+    @Override
+    public void invalidateObject(boolean local, Class<? extends BaseModel> clazz, long id) {
+        if (clazz.equals(Device.class)) {
+            refreshDevice(id);
+        }
+    }
+
+    @Override
+    public void invalidatePermission(
+            boolean local,
+            Class<? extends BaseModel> clazz1, long id1,
+            Class<? extends BaseModel> clazz2, long id2) {
+        if (clazz1.equals(Device.class) && !uniqueIds.containsKey(id1)) {
+            refreshDevice(id1);
+        }
+        if (clazz2.equals(Device.class) && !uniqueIds.containsKey(id2)) {
+            refreshDevice(id2);
+        }
+    }
+
+    private Device getDevice(long deviceId) throws StorageException {
+        Device device = cacheManager.getObject(Device.class, deviceId);
+        if (device == null) {
+            device = storage.getObject(Device.class, new Request(
+                    new Columns.All(), new Condition.Equals("id", deviceId)));
+        }
+        return device;
     }
 
     private synchronized boolean isThrottled(String uniqueId) {
@@ -106,11 +192,25 @@ public class DeviceLookupService {
         Device device = null;
         try {
             for (String uniqueId : uniqueIds) {
+                Long deviceId = deviceIds.get(uniqueId);
+                if (deviceId != null) {
+                    device = getDevice(deviceId);
+                    if (device != null && uniqueId.equals(device.getUniqueId())) {
+                        break;
+                    }
+                    // device was removed or its identifier changed
+                    if (device != null) {
+                        updateDevice(device);
+                    } else {
+                        removeDevice(deviceId);
+                    }
+                    device = null;
+                }
                 if (!isThrottled(uniqueId)) {
                     device = storage.getObject(Device.class, new Request(
                             new Columns.All(), new Condition.Equals("uniqueId", uniqueId)));
                     if (device != null) {
-                        lookupSucceeded(uniqueId);
+                        updateDevice(device);
                         break;
                     } else {
                         lookupFailed(uniqueId);
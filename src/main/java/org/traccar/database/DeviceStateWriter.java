@@ -0,0 +1,148 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.LifecycleObject;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.model.Device;
+import org.traccar.storage.EntityMapper;
+import org.traccar.storage.Storage;
+import org.traccar.storage.StorageException;
+import org.traccar.storage.StorageWorkload;
+import org.traccar.storage.query.Columns;
+import org.traccar.storage.query.Condition;
+import org.traccar.storage.query.Request;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind store for frequently updated device columns (status, position, motion and overspeed state, etc). Dirty
+ * column values are copied when the update is requested and merged per device id, so each device gets at most one
+ * update per flush regardless of which device objects the changes came from. Updates are written periodically in
+ * batches grouped by column set.
+ */
+@Singleton
+public class DeviceStateWriter implements LifecycleObject {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceStateWriter.class);
+
+    private final Storage storage;
+    private final long interval;
+
+    private static final class PendingUpdate {
+        private final Device device = new Device();
+        private final Set<String> columns = new TreeSet<>();
+    }
+
+    private final Map<Long, PendingUpdate> pending = new ConcurrentHashMap<>();
+
+    private volatile ScheduledExecutorService executor;
+
+    @Inject
+    public DeviceStateWriter(Config config, Storage storage) {
+        this.storage = storage;
+        interval = config.getLong(Keys.DATABASE_DEVICE_WRITE_INTERVAL);
+    }
+
+    public void updateDevice(Device device, String... columns) throws StorageException {
+        if (executor == null) {
+            storage.updateObject(device, new Request(
+                    new Columns.Include(columns),
+                    new Condition.Equals("id", device.getId())));
+        } else {
+            EntityMapper mapper = EntityMapper.get(Device.class);
+            pending.compute(device.getId(), (id, update) -> {
+                if (update == null) {
+                    update = new PendingUpdate();
+                    update.device.setId(id);
+                }
+                for (String column : columns) {
+                    mapper.getSetter(column).set(update.device, copyValue(mapper.getGetter(column).get(device)));
+                    update.columns.add(column);
+                }
+                return update;
+            });
+        }
+    }
+
+    /**
+     * Copy mutable values, so later changes to the cached device don't leak into the pending update.
+     */
+    private static Object copyValue(Object value) {
+        if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        } else if (value instanceof Map) {
+            return new HashMap<>((Map<?, ?>) value);
+        } else if (value instanceof List) {
+            return new ArrayList<>((List<?>) value);
+        }
+        return value;
+    }
+
+    @Override
+    public void start() {
+        if (interval > 0) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    runnable -> new Thread(StorageWorkload.INGEST.wrap(runnable), "device-state-writer"));
+            executor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        if (executor != null) {
+            ScheduledExecutorService currentExecutor = executor;
+            executor = null;
+            currentExecutor.shutdown();
+            currentExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            flush();
+        }
+    }
+
+    private void flush() {
+        Map<Set<String>, List<Device>> batches = new HashMap<>();
+        for (Long deviceId : pending.keySet()) {
+            PendingUpdate update = pending.remove(deviceId);
+            if (update != null) {
+                batches.computeIfAbsent(update.columns, c -> new ArrayList<>()).add(update.device);
+            }
+        }
+
+        for (var batch : batches.entrySet()) {
+            try {
+                storage.updateObjects(batch.getValue(), new Columns.Include(batch.getKey().toArray(new String[0])));
+            } catch (StorageException e) {
+                LOGGER.warn("Update devices error", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.BasePositionHandler;
+import org.traccar.LifecycleObject;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.model.Position;
+import org.traccar.storage.StorageWorkload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+public class PositionBatchWriter implements LifecycleObject {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PositionBatchWriter.class);
+
+    private static final long POLL_TIMEOUT = 1000;
+
+    private final PositionStore positionStore;
+    private final StoragePressure storagePressure;
+    private final int batchSize;
+    private final long linger;
+    private final int queueSize;
+
+    private final BlockingQueue<Entry> queue;
+
+    // writers hold the read lock while queueing, so no entry can be added after stop has drained the queue
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean running;
+    private Thread thread;
+
+    private static final class Entry {
+
+        private final Position position;
+        private final BasePositionHandler.Callback callback;
+
+        private Entry(Position position, BasePositionHandler.Callback callback) {
+            this.position = position;
+            this.callback = callback;
+        }
+
+    }
+
+    public PositionBatchWriter(Config config, PositionStore positionStore, StoragePressure storagePressure) {
+        this.positionStore = positionStore;
+        this.storagePressure = storagePressure;
+        batchSize = config.getInteger(Keys.DATABASE_BATCH_SIZE);
+        linger = TimeUnit.MILLISECONDS.toNanos(config.getLong(Keys.DATABASE_BATCH_LINGER));
+        queueSize = config.getInteger(Keys.DATABASE_BATCH_QUEUE_SIZE);
+        queue = new LinkedBlockingQueue<>(Math.max(queueSize, 1));
+    }
+
+    /**
+     * Queue position for storing. Callback is invoked with the position after it is stored and its id is assigned, or
+     * with null if storing failed. If the queue is full, reading from the channel is suspended until the queue is
+     * drained and the caller waits for free space, so the queue size is enforced for channels that can't be paused.
+     */
+    public void write(Position position, Channel channel, BasePositionHandler.Callback callback) {
+        Entry entry = new Entry(position, callback);
+        storagePressure.writeStarted(1);
+        boolean queued = false;
+        lock.readLock().lock();
+        try {
+            if (running) {
+                if (!queue.offer(entry)) {
+                    if (channel != null) {
+                        storagePressure.pauseChannel(channel);
+                    }
+                    queue.put(entry);
+                }
+                queued = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!queued) {
+            flush(List.of(entry));
+        } else if (channel != null && queue.remainingCapacity() == 0) {
+            storagePressure.pauseChannel(channel);
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        thread = new Thread(StorageWorkload.INGEST.wrap(this::run), "position-writer");
+        thread.start();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        lock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (thread != null) {
+            thread.join();
+            thread = null;
+        }
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Entry entry = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (entry == null) {
+                    continue;
+                }
+                batch.add(entry);
+                long deadline = System.nanoTime() + linger;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    entry = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (entry == null) {
+                        break;
+                    }
+                    batch.add(entry);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+                break;
+            } catch (RuntimeException e) {
+                LOGGER.warn("Position writer error", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Store the batch and complete all its callbacks. Positions of a batch that fails unexpectedly are passed to the
+     * callbacks as failed.
+     */
+    private void flush(List<Entry> batch) {
+        try {
+            positionStore.store(batch.stream().map(entry -> entry.position).collect(Collectors.toList()));
+        } catch (RuntimeException error) {
+            LOGGER.warn("Position writer error", error);
+        } finally {
+            storagePressure.writeFinished(batch.size());
+        }
+
+        for (Entry entry : batch) {
+            try {
+                entry.callback.processed(entry.position.getId() != 0 ? entry.position : null);
+            } catch (RuntimeException error) {
+                LOGGER.warn("Position callback error", error);
+            }
+        }
+
+        if (queue.size() <= queueSize / 2) {
+            storagePressure.resumeChannels();
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.model.Position;
+import org.traccar.storage.Storage;
+import org.traccar.storage.StorageException;
+import org.traccar.storage.query.Columns;
+import org.traccar.storage.query.Request;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts positions and assigns generated ids. Multiple positions are inserted with a single batch, falling back to
+ * individual inserts if the batch fails or the database doesn't return generated keys for it. Positions that could
+ * not be stored keep id 0 and are returned to the caller.
+ */
+@Singleton
+public class PositionStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PositionStore.class);
+
+    private final Storage storage;
+
+    private volatile boolean batchSupported = true;
+
+    @Inject
+    public PositionStore(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Returns positions that could not be stored.
+     */
+    public List<Position> store(List<Position> positions) {
+        Request request = new Request(new Columns.Exclude("id"));
+
+        if (batchSupported && positions.size() > 1) {
+            try {
+                List<Long> ids = storage.addObjects(positions, request);
+                if (ids.size() == positions.size()) {
+                    for (int i = 0; i < positions.size(); i++) {
+                        positions.get(i).setId(ids.get(i));
+                    }
+                    return List.of();
+                }
+                // batch is rolled back by the storage, so positions can be inserted individually
+                LOGGER.warn("Database did not return generated keys for batch, disabling batch inserts");
+                batchSupported = false;
+            } catch (StorageException error) {
+                LOGGER.warn("Failed to store positions batch", error);
+            }
+        }
+
+        List<Position> failed = new ArrayList<>();
+        for (Position position : positions) {
+            try {
+                position.setId(storage.addObject(position, request));
+            } catch (StorageException error) {
+                LOGGER.warn("Failed to store position", error);
+                failed.add(position);
+            }
+        }
+        return failed;
+    }
+
+}
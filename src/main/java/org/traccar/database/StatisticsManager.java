@@ -52,6 +52,7 @@ public class StatisticsManager {
     private final Storage storage;
     private final Client client;
     private final ObjectMapper objectMapper;
+    private final StoragePressure storagePressure;
 
     private final AtomicInteger lastUpdate = new AtomicInteger(Calendar.getInstance().get(SPLIT_MODE));
 
@@ -65,13 +66,18 @@ public class StatisticsManager {
     private int smsSent;
     private int geocoderRequests;
     private int geolocationRequests;
+    private long channelsPaused;
+    private long channelsPausedTime;
 
     @Inject
-    public StatisticsManager(Config config, Storage storage, Client client, ObjectMapper objectMapper) {
+    public StatisticsManager(
+            Config config, Storage storage, Client client, ObjectMapper objectMapper,
+            StoragePressure storagePressure) {
         this.config = config;
         this.storage = storage;
         this.client = client;
         this.objectMapper = objectMapper;
+        this.storagePressure = storagePressure;
     }
 
     private void checkSplit() {
@@ -97,6 +103,14 @@ public class StatisticsManager {
                     }
                     statistics.setProtocols(protocols);
                 }
+                if (storagePressure.isEnabled()) {
+                    long pauseCount = storagePressure.getPauseCount();
+                    long pausedTime = storagePressure.getPausedTime();
+                    statistics.set("channelsPaused", pauseCount - channelsPaused);
+                    statistics.set("channelsPausedTime", pausedTime - channelsPausedTime);
+                    channelsPaused = pauseCount;
+                    channelsPausedTime = pausedTime;
+                }
 
                 users.clear();
                 deviceProtocols.clear();
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.DatagramChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Estimates database load from the connection pool wait time and the number of in-flight position writes. While the
+ * load is above the limit, reading is suspended on the busiest device connections. Reading is resumed once the load
+ * drops below half of the limit.
+ * <p>
+ * Datagram channels are never paused because a single channel is shared by all devices on the port.
+ */
+@Singleton
+public class StoragePressure implements MetricsTrackerFactory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StoragePressure.class);
+
+    private static final double RESUME_PRESSURE = 0.5;
+
+    private final boolean enabled;
+    private final long interval;
+    private final long waitLimit;
+    private final int writesLimit;
+    private final int pauseLimit;
+
+    private final AtomicInteger writes = new AtomicInteger();
+    private final LongAdder waitTime = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+    private volatile PoolStats poolStats;
+
+    private final Map<Channel, LongAdder> channelMessages = new ConcurrentHashMap<>();
+    private final Map<Channel, Long> pausedChannels = new ConcurrentHashMap<>();
+    private final AtomicLong pauseCount = new AtomicLong();
+    private final AtomicLong pausedTime = new AtomicLong();
+
+    private volatile double pressure;
+
+    @Inject
+    public StoragePressure(Config config) {
+        enabled = config.getBoolean(Keys.DATABASE_BACKPRESSURE_ENABLE);
+        interval = config.getLong(Keys.DATABASE_BACKPRESSURE_INTERVAL);
+        waitLimit = TimeUnit.MILLISECONDS.toNanos(config.getLong(Keys.DATABASE_BACKPRESSURE_WAIT));
+        writesLimit = config.getInteger(Keys.DATABASE_BACKPRESSURE_WRITES);
+        pauseLimit = config.getInteger(Keys.DATABASE_BACKPRESSURE_CHANNELS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                waitTime.add(elapsedAcquiredNanos);
+                waitCount.increment();
+            }
+        };
+    }
+
+    public void writeStarted(int count) {
+        writes.addAndGet(count);
+    }
+
+    public void writeFinished(int count) {
+        writes.addAndGet(-count);
+    }
+
+    public void registerMessage(Channel channel) {
+        if (enabled && channel != null && !(channel instanceof DatagramChannel)) {
+            channelMessages.computeIfAbsent(channel, key -> new LongAdder()).increment();
+        }
+    }
+
+    public boolean isOverloaded() {
+        return enabled && pressure >= RESUME_PRESSURE;
+    }
+
+    /**
+     * Suspend reading from the channel. Datagram channels are ignored because they are shared by all devices.
+     */
+    public void pauseChannel(Channel channel) {
+        if (channel instanceof DatagramChannel) {
+            return;
+        }
+        if (pausedChannels.putIfAbsent(channel, System.currentTimeMillis()) == null) {
+            channel.config().setAutoRead(false);
+            pauseCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Resume reading on all paused channels unless the storage is still overloaded.
+     */
+    public void resumeChannels() {
+        if (pausedChannels.isEmpty() || isOverloaded()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Channel channel : pausedChannels.keySet()) {
+            Long pauseTime = pausedChannels.remove(channel);
+            if (pauseTime != null) {
+                channel.config().setAutoRead(true);
+                pausedTime.addAndGet(now - pauseTime);
+                count += 1;
+            }
+        }
+        if (count > 0) {
+            LOGGER.info("Storage load is back to normal, resumed {} connections", count);
+        }
+    }
+
+    /**
+     * Recalculate storage load and pause or resume channels accordingly. Expected to be called periodically.
+     */
+    public void check() {
+        long count = waitCount.sumThenReset();
+        long total = waitTime.sumThenReset();
+        long wait = count > 0 ? total / count : 0;
+        PoolStats poolStats = this.poolStats;
+        if (count == 0 && poolStats != null && poolStats.getPendingThreads() > 0) {
+            wait = TimeUnit.MILLISECONDS.toNanos(interval);
+        }
+        pressure = Math.max((double) wait / waitLimit, (double) writes.get() / writesLimit);
+
+        long now = System.currentTimeMillis();
+        pausedChannels.entrySet().removeIf(entry -> {
+            if (!entry.getKey().isActive()) {
+                pausedTime.addAndGet(now - entry.getValue());
+                return true;
+            }
+            return false;
+        });
+
+        if (pressure >= 1) {
+            List<Channel> busiest = channelMessages.entrySet().stream()
+                    .filter(entry -> entry.getKey().isActive() && !pausedChannels.containsKey(entry.getKey()))
+                    .sorted(Comparator.comparingLong(
+                            (Map.Entry<Channel, LongAdder> entry) -> entry.getValue().sum()).reversed())
+                    .limit(pauseLimit)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+            busiest.forEach(this::pauseChannel);
+            if (!busiest.isEmpty()) {
+                LOGGER.warn("Storage overloaded (wait: {} ms, writes: {}), paused {} connections",
+                        TimeUnit.NANOSECONDS.toMillis(wait), writes.get(), busiest.size());
+            }
+        } else if (pressure < RESUME_PRESSURE) {
+            resumeChannels();
+        }
+
+        channelMessages.clear();
+    }
+
+    public double getPressure() {
+        return pressure;
+    }
+
+    public int getPausedChannels() {
+        return pausedChannels.size();
+    }
+
+    public long getPauseCount() {
+        return pauseCount.get();
+    }
+
+    /**
+     * Total time in milliseconds channels spent paused, including channels that are still paused.
+     */
+    public long getPausedTime() {
+        long now = System.currentTimeMillis();
+        long time = pausedTime.get();
+        for (Long pauseTime : pausedChannels.values()) {
+            time += now - pauseTime;
+        }
+        return time;
+    }
+
+}
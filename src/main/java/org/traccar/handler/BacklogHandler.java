@@ -0,0 +1,219 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.handler;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.BasePositionHandler;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.helper.DistanceCalculator;
+import org.traccar.helper.model.PositionUtil;
+import org.traccar.model.Position;
+import org.traccar.session.cache.CacheManager;
+import org.traccar.storage.Storage;
+import org.traccar.storage.StorageException;
+import org.traccar.storage.query.Columns;
+import org.traccar.storage.query.Condition;
+import org.traccar.storage.query.Order;
+import org.traccar.storage.query.Request;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores historical positions in batches, bypassing the regular processing chain. Distance is calculated against the
+ * preceding stored position and total distance of the positions stored after the backlog window is recalculated, up
+ * to the first position that is already consistent or the update limit. Only positions that end up being the latest
+ * for the device are passed further to update the device state.
+ * <p>
+ * If positions of a device can't be processed or stored because of a storage error, the error is rethrown after the
+ * other devices are processed. Positions that were not stored keep id 0, so the caller can pass them to the regular
+ * processing chain.
+ */
+@Singleton
+@ChannelHandler.Sharable
+public class BacklogHandler extends BasePositionHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BacklogHandler.class);
+
+    private static final int UPDATE_LIMIT = 1000;
+
+    private final boolean enabled;
+    private final long age;
+
+    private final CacheManager cacheManager;
+    private final Storage storage;
+    private final DistanceHandler distanceHandler;
+    private final DefaultDataHandler defaultDataHandler;
+
+    @Inject
+    public BacklogHandler(
+            Config config, CacheManager cacheManager, Storage storage,
+            DistanceHandler distanceHandler, DefaultDataHandler defaultDataHandler) {
+        enabled = config.getBoolean(Keys.PROCESSING_BACKLOG_ENABLE);
+        age = config.getLong(Keys.PROCESSING_BACKLOG_AGE) * 1000;
+        this.cacheManager = cacheManager;
+        this.storage = storage;
+        this.distanceHandler = distanceHandler;
+        this.defaultDataHandler = defaultDataHandler;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isBacklog(Position position) {
+        if (!enabled || position.getFixTime() == null) {
+            return false;
+        }
+        if (age > 0 && position.getFixTime().getTime() < System.currentTimeMillis() - age) {
+            return true;
+        }
+        Position last = cacheManager.getPosition(position.getDeviceId());
+        return last != null && position.getFixTime().before(last.getFixTime());
+    }
+
+    @Override
+    public void handlePosition(Channel channel, Position position, Callback callback) throws StorageException {
+        handlePositions(channel, List.of(position), result -> {
+            callback.processed(result.isEmpty() ? null : result.get(0));
+        });
+    }
+
+    @Override
+    public void handlePositions(
+            Channel channel, List<Position> positions, BatchCallback callback) throws StorageException {
+        Map<Long, List<Position>> devicePositions = new LinkedHashMap<>();
+        for (Position position : positions) {
+            devicePositions.computeIfAbsent(position.getDeviceId(), k -> new ArrayList<>()).add(position);
+        }
+
+        List<Position> result = new ArrayList<>();
+        StorageException error = null;
+        for (Map.Entry<Long, List<Position>> entry : devicePositions.entrySet()) {
+            List<Position> items = new ArrayList<>(entry.getValue());
+            items.sort(Comparator.comparing(Position::getFixTime));
+            try {
+                processPositions(entry.getKey(), items);
+            } catch (StorageException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+            Position newest = items.get(items.size() - 1);
+            if (newest.getId() != 0 && PositionUtil.isLatest(cacheManager, newest)) {
+                result.add(newest);
+            }
+        }
+
+        callback.processed(result);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void processPositions(long deviceId, List<Position> positions) throws StorageException {
+        Position last = cacheManager.getPrecedingPosition(deviceId, positions.get(0).getFixTime());
+
+        for (Position position : positions) {
+            last = distanceHandler.handlePosition(position, last);
+        }
+
+        List<Position> failed = defaultDataHandler.storePositions(positions);
+        for (Position position : positions) {
+            if (position.getId() != 0) {
+                cacheManager.addRecentPosition(position);
+            }
+        }
+
+        try {
+            updateFollowing(deviceId, last);
+        } catch (StorageException e) {
+            LOGGER.warn("Failed to recalculate distance of device {}", deviceId, e);
+        }
+
+        if (!failed.isEmpty()) {
+            throw new StorageException(
+                    "Failed to store " + failed.size() + " historical positions of device " + deviceId);
+        }
+    }
+
+    private void updateFollowing(long deviceId, Position last) throws StorageException {
+        List<Position> following = storage.getObjects(Position.class, new Request(
+                new Columns.All(),
+                new Condition.And(
+                        new Condition.Equals("deviceId", deviceId),
+                        new Condition.Compare("fixTime", ">", "time", last.getFixTime())),
+                new Order("fixTime", false, UPDATE_LIMIT)));
+
+        List<Position> changed = new ArrayList<>();
+        Position previous = last;
+        for (Position position : following) {
+            double distance = changed.isEmpty()
+                    ? round(DistanceCalculator.distance(
+                            position.getLatitude(), position.getLongitude(),
+                            previous.getLatitude(), previous.getLongitude()))
+                    : position.getDouble(Position.KEY_DISTANCE);
+            double totalDistance = round(previous.getDouble(Position.KEY_TOTAL_DISTANCE) + distance);
+            if (distance == position.getDouble(Position.KEY_DISTANCE)
+                    && totalDistance == position.getDouble(Position.KEY_TOTAL_DISTANCE)) {
+                break; // following positions are already consistent
+            }
+            position.set(Position.KEY_DISTANCE, distance);
+            position.set(Position.KEY_TOTAL_DISTANCE, totalDistance);
+            changed.add(position);
+            previous = position;
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        storage.updateObjects(changed, new Columns.Include("attributes"));
+
+        Position cached = cacheManager.getPosition(deviceId);
+        if (cached != null) {
+            for (Position position : changed) {
+                if (position.getId() == cached.getId()) {
+                    cached.set(Position.KEY_DISTANCE, position.getDouble(Position.KEY_DISTANCE));
+                    cached.set(Position.KEY_TOTAL_DISTANCE, position.getDouble(Position.KEY_TOTAL_DISTANCE));
+                }
+            }
+        }
+
+        if (changed.size() == UPDATE_LIMIT) {
+            LOGGER.warn("Recalculated distance for {} positions of device {}, later positions are not updated",
+                    changed.size(), deviceId);
+        } else {
+            LOGGER.info("Recalculated distance for {} positions of device {}", changed.size(), deviceId);
+        }
+    }
+
+    private static double round(double value) {
+        return BigDecimal.valueOf(value).setScale(2, RoundingMode.HALF_EVEN).doubleValue();
+    }
+
+}
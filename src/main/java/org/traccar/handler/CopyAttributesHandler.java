@@ -26,6 +26,7 @@ import org.traccar.session.cache.CacheManager;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.List;
 
 @Singleton
 @ChannelHandler.Sharable
@@ -40,12 +41,25 @@ public class CopyAttributesHandler extends BaseDataHandler {
         this.cacheManager = cacheManager;
     }
 
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
     @Override
     protected Position handlePosition(Position position) {
+        return handlePosition(position, cacheManager.getPosition(position.getDeviceId()));
+    }
+
+    @Override
+    protected List<Position> handlePositions(List<Position> positions) {
+        return handleSequentially(cacheManager, positions, this::handlePosition);
+    }
+
+    private Position handlePosition(Position position, Position last) {
         if (enabled) {
             String attributesString = AttributeUtil.lookup(
                     cacheManager, Keys.PROCESSING_COPY_ATTRIBUTES, position.getDeviceId());
-            Position last = cacheManager.getPosition(position.getDeviceId());
             if (last != null && attributesString != null) {
                 for (String attribute : attributesString.split("[ ,]")) {
                     if (last.hasAttribute(attribute) && !position.hasAttribute(attribute)) {
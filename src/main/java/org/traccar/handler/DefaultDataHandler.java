@@ -15,41 +15,93 @@
  */
 package org.traccar.handler;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.traccar.BaseDataHandler;
+import org.traccar.database.PositionBatchWriter;
+import org.traccar.database.PositionStore;
+import org.traccar.database.StoragePressure;
 import org.traccar.model.Position;
-import org.traccar.storage.Storage;
-import org.traccar.storage.query.Columns;
-import org.traccar.storage.query.Request;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Stores positions in the database. Positions that could not be stored are still passed on with zero id, so events,
+ * forwarding and live updates work the same way regardless of the storage state.
+ */
 @Singleton
 @ChannelHandler.Sharable
 public class DefaultDataHandler extends BaseDataHandler {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultDataHandler.class);
-
-    private final Storage storage;
+    private final PositionStore positionStore;
+    private final PositionBatchWriter positionBatchWriter;
+    private final StoragePressure storagePressure;
 
     @Inject
-    public DefaultDataHandler(Storage storage) {
-        this.storage = storage;
+    public DefaultDataHandler(
+            PositionStore positionStore, @Nullable PositionBatchWriter positionBatchWriter,
+            StoragePressure storagePressure) {
+        this.positionStore = positionStore;
+        this.positionBatchWriter = positionBatchWriter;
+        this.storagePressure = storagePressure;
     }
 
     @Override
-    protected Position handlePosition(Position position) {
+    public void handlePosition(Channel channel, Position position, Callback callback) throws Exception {
+        if (positionBatchWriter != null) {
+            positionBatchWriter.write(position, channel, result -> callback.processed(position));
+        } else {
+            super.handlePosition(channel, position, callback);
+        }
+    }
 
+    @Override
+    protected Position handlePosition(Position position) {
+        storagePressure.writeStarted(1);
         try {
-            position.setId(storage.addObject(position, new Request(new Columns.Exclude("id"))));
-        } catch (Exception error) {
-            LOGGER.warn("Failed to store position", error);
+            positionStore.store(List.of(position));
+        } finally {
+            storagePressure.writeFinished(1);
         }
-
         return position;
     }
 
+    @Override
+    public void handlePositions(Channel channel, List<Position> positions, BatchCallback callback) throws Exception {
+        if (positionBatchWriter != null) {
+            AtomicInteger remaining = new AtomicInteger(positions.size());
+            for (Position position : positions) {
+                positionBatchWriter.write(position, channel, result -> {
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.processed(positions);
+                    }
+                });
+            }
+        } else {
+            super.handlePositions(channel, positions, callback);
+        }
+    }
+
+    @Override
+    protected List<Position> handlePositions(List<Position> positions) {
+        storePositions(positions);
+        return positions;
+    }
+
+    /**
+     * Store positions directly, bypassing the batch writer. Returns positions that could not be stored.
+     */
+    public List<Position> storePositions(List<Position> positions) {
+        storagePressure.writeStarted(positions.size());
+        try {
+            return positionStore.store(positions);
+        } finally {
+            storagePressure.writeFinished(positions.size());
+        }
+    }
+
 }
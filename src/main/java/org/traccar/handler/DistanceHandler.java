@@ -17,22 +17,29 @@
 package org.traccar.handler;
 
 import io.netty.channel.ChannelHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.traccar.BaseDataHandler;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
 import org.traccar.helper.DistanceCalculator;
+import org.traccar.helper.model.PositionUtil;
 import org.traccar.model.Position;
 import org.traccar.session.cache.CacheManager;
+import org.traccar.storage.StorageException;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.List;
 
 @Singleton
 @ChannelHandler.Sharable
 public class DistanceHandler extends BaseDataHandler {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(DistanceHandler.class);
+
     private final CacheManager cacheManager;
 
     private final boolean filter;
@@ -49,6 +56,26 @@ public class DistanceHandler extends BaseDataHandler {
 
     @Override
     protected Position handlePosition(Position position) {
+        return handlePosition(position, cacheManager.getPosition(position.getDeviceId()));
+    }
+
+    private Position getPrecedingPosition(Position position, Position last) {
+        try {
+            return PositionUtil.getPrecedingPosition(cacheManager, position, last);
+        } catch (StorageException e) {
+            LOGGER.warn("Failed to find preceding position", e);
+            return last;
+        }
+    }
+
+    @Override
+    protected List<Position> handlePositions(List<Position> positions) {
+        return handleSequentially(cacheManager, positions, this::handlePosition);
+    }
+
+    Position handlePosition(Position position, Position last) {
+
+        last = getPrecedingPosition(position, last);
 
         double distance = 0.0;
         if (position.hasAttribute(Position.KEY_DISTANCE)) {
@@ -56,7 +83,6 @@ public class DistanceHandler extends BaseDataHandler {
         }
         double totalDistance = 0.0;
 
-        Position last = cacheManager.getPosition(position.getDeviceId());
         if (last != null) {
             totalDistance = last.getDouble(Position.KEY_TOTAL_DISTANCE);
             if (!position.hasAttribute(Position.KEY_DISTANCE)) {
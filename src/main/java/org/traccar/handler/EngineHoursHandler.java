@@ -17,17 +17,24 @@
 package org.traccar.handler;
 
 import io.netty.channel.ChannelHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.traccar.BaseDataHandler;
+import org.traccar.helper.model.PositionUtil;
 import org.traccar.model.Position;
 import org.traccar.session.cache.CacheManager;
+import org.traccar.storage.StorageException;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.List;
 
 @Singleton
 @ChannelHandler.Sharable
 public class EngineHoursHandler extends BaseDataHandler {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(EngineHoursHandler.class);
+
     private final CacheManager cacheManager;
 
     @Inject
@@ -37,8 +44,26 @@ public class EngineHoursHandler extends BaseDataHandler {
 
     @Override
     protected Position handlePosition(Position position) {
+        return handlePosition(position, cacheManager.getPosition(position.getDeviceId()));
+    }
+
+    @Override
+    protected List<Position> handlePositions(List<Position> positions) {
+        return handleSequentially(cacheManager, positions, this::handlePosition);
+    }
+
+    private Position getPrecedingPosition(Position position, Position last) {
+        try {
+            return PositionUtil.getPrecedingPosition(cacheManager, position, last);
+        } catch (StorageException e) {
+            LOGGER.warn("Failed to find preceding position", e);
+            return last;
+        }
+    }
+
+    private Position handlePosition(Position position, Position last) {
         if (!position.hasAttribute(Position.KEY_HOURS)) {
-            Position last = cacheManager.getPosition(position.getDeviceId());
+            last = getPrecedingPosition(position, last);
             if (last != null) {
                 long hours = last.getLong(Position.KEY_HOURS);
                 if (last.getBoolean(Position.KEY_IGNITION) && position.getBoolean(Position.KEY_IGNITION)) {
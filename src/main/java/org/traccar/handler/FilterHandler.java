@@ -26,16 +26,14 @@ import org.traccar.helper.model.AttributeUtil;
 import org.traccar.model.Device;
 import org.traccar.model.Position;
 import org.traccar.session.cache.CacheManager;
-import org.traccar.storage.Storage;
 import org.traccar.storage.StorageException;
-import org.traccar.storage.query.Columns;
-import org.traccar.storage.query.Condition;
-import org.traccar.storage.query.Order;
-import org.traccar.storage.query.Request;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 @Singleton
 @ChannelHandler.Sharable
@@ -60,10 +58,9 @@ public class FilterHandler extends BaseDataHandler {
     private final boolean skipAttributes;
 
     private final CacheManager cacheManager;
-    private final Storage storage;
 
     @Inject
-    public FilterHandler(Config config, CacheManager cacheManager, Storage storage) {
+    public FilterHandler(Config config, CacheManager cacheManager) {
         enabled = config.getBoolean(Keys.FILTER_ENABLE);
         filterInvalid = config.getBoolean(Keys.FILTER_INVALID);
         filterZero = config.getBoolean(Keys.FILTER_ZERO);
@@ -80,16 +77,6 @@ public class FilterHandler extends BaseDataHandler {
         skipLimit = config.getLong(Keys.FILTER_SKIP_LIMIT) * 1000;
         skipAttributes = config.getBoolean(Keys.FILTER_SKIP_ATTRIBUTES_ENABLE);
         this.cacheManager = cacheManager;
-        this.storage = storage;
-    }
-
-    private Position getPrecedingPosition(long deviceId, Date date) throws StorageException {
-        return storage.getObject(Position.class, new Request(
-                new Columns.All(),
-                new Condition.And(
-                        new Condition.Equals("deviceId", deviceId),
-                        new Condition.Compare("fixTime", "<=", "time", date)),
-                new Order("fixTime", true, 1)));
     }
 
     private boolean filterInvalid(Position position) {
@@ -177,7 +164,29 @@ public class FilterHandler extends BaseDataHandler {
         return false;
     }
 
-    private boolean filter(Position position) {
+    private Position getPrecedingPosition(Position position, Position last, Collection<Position> batch) {
+        long deviceId = position.getDeviceId();
+        Date fixTime = position.getFixTime();
+        if (filterRelative) {
+            Position preceding;
+            try {
+                preceding = cacheManager.getPrecedingPosition(deviceId, fixTime);
+            } catch (StorageException e) {
+                LOGGER.warn("Error retrieving preceding position; fallbacking to last received position.", e);
+                return last;
+            }
+            for (Position item : batch) {
+                if (item.getDeviceId() == deviceId && item.getFixTime().compareTo(fixTime) <= 0
+                        && (preceding == null || item.getFixTime().compareTo(preceding.getFixTime()) >= 0)) {
+                    preceding = item;
+                }
+            }
+            return preceding;
+        }
+        return last;
+    }
+
+    private boolean filter(Position position, Position last, Collection<Position> batch) {
 
         StringBuilder filterType = new StringBuilder();
 
@@ -204,18 +213,7 @@ public class FilterHandler extends BaseDataHandler {
         // filter out excessive data
         long deviceId = position.getDeviceId();
         if (filterDuplicate || filterStatic || filterDistance > 0 || filterMaxSpeed > 0 || filterMinPeriod > 0) {
-            Position preceding = null;
-            if (filterRelative) {
-                try {
-                    Date newFixTime = position.getFixTime();
-                    preceding = getPrecedingPosition(deviceId, newFixTime);
-                } catch (StorageException e) {
-                    LOGGER.warn("Error retrieving preceding position; fallbacking to last received position.", e);
-                    preceding = cacheManager.getPosition(deviceId);
-                }
-            } else {
-                preceding = cacheManager.getPosition(deviceId);
-            }
+            Position preceding = getPrecedingPosition(position, last, batch);
             if (filterDuplicate(position, preceding) && !skipLimit(position, preceding) && !skipAttributes(position)) {
                 filterType.append("Duplicate ");
             }
@@ -242,12 +240,32 @@ public class FilterHandler extends BaseDataHandler {
         return false;
     }
 
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
     @Override
     protected Position handlePosition(Position position) {
-        if (enabled && filter(position)) {
+        if (enabled && filter(position, cacheManager.getPosition(position.getDeviceId()), List.of())) {
             return null;
         }
         return position;
     }
 
+    @Override
+    protected List<Position> handlePositions(List<Position> positions) {
+        if (!enabled) {
+            return positions;
+        }
+        List<Position> accepted = new ArrayList<>();
+        return handleSequentially(cacheManager, positions, (position, last) -> {
+            if (filter(position, last, accepted)) {
+                return null;
+            }
+            accepted.add(position);
+            return position;
+        });
+    }
+
 }
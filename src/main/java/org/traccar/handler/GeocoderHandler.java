@@ -15,11 +15,11 @@
  */
 package org.traccar.handler;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.traccar.BasePositionHandler;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
 import org.traccar.geocoder.Geocoder;
@@ -27,7 +27,7 @@ import org.traccar.model.Position;
 import org.traccar.session.cache.CacheManager;
 
 @ChannelHandler.Sharable
-public class GeocoderHandler extends ChannelInboundHandlerAdapter {
+public class GeocoderHandler extends BasePositionHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GeocoderHandler.class);
 
@@ -46,39 +46,39 @@ public class GeocoderHandler extends ChannelInboundHandlerAdapter {
     }
 
     @Override
-    public void channelRead(final ChannelHandlerContext ctx, Object message) {
-        if (message instanceof Position && !ignorePositions) {
-            final Position position = (Position) message;
-            if (processInvalidPositions || position.getValid()) {
-                if (reuseDistance != 0) {
-                    Position lastPosition = cacheManager.getPosition(position.getDeviceId());
-                    if (lastPosition != null && lastPosition.getAddress() != null
-                            && position.getDouble(Position.KEY_DISTANCE) <= reuseDistance) {
-                        position.setAddress(lastPosition.getAddress());
-                        ctx.fireChannelRead(position);
-                        return;
-                    }
+    public boolean isEnabled() {
+        return !ignorePositions;
+    }
+
+    @Override
+    public void handlePosition(Channel channel, Position position, Callback callback) {
+        if (!ignorePositions && (processInvalidPositions || position.getValid())) {
+            if (reuseDistance != 0) {
+                Position lastPosition = cacheManager.getPosition(position.getDeviceId());
+                if (lastPosition != null && lastPosition.getAddress() != null
+                        && position.getDouble(Position.KEY_DISTANCE) <= reuseDistance) {
+                    position.setAddress(lastPosition.getAddress());
+                    callback.processed(position);
+                    return;
                 }
+            }
 
-                geocoder.getAddress(position.getLatitude(), position.getLongitude(),
-                        new Geocoder.ReverseGeocoderCallback() {
-                    @Override
-                    public void onSuccess(String address) {
-                        position.setAddress(address);
-                        ctx.fireChannelRead(position);
-                    }
+            geocoder.getAddress(position.getLatitude(), position.getLongitude(),
+                    new Geocoder.ReverseGeocoderCallback() {
+                @Override
+                public void onSuccess(String address) {
+                    position.setAddress(address);
+                    callback.processed(position);
+                }
 
-                    @Override
-                    public void onFailure(Throwable e) {
-                        LOGGER.warn("Geocoding failed", e);
-                        ctx.fireChannelRead(position);
-                    }
-                });
-            } else {
-                ctx.fireChannelRead(position);
-            }
+                @Override
+                public void onFailure(Throwable e) {
+                    LOGGER.warn("Geocoding failed", e);
+                    callback.processed(position);
+                }
+            });
         } else {
-            ctx.fireChannelRead(message);
+            callback.processed(position);
         }
     }
 
@@ -15,11 +15,11 @@
  */
 package org.traccar.handler;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.traccar.BasePositionHandler;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
 import org.traccar.database.StatisticsManager;
@@ -28,7 +28,7 @@ import org.traccar.model.Position;
 import org.traccar.session.cache.CacheManager;
 
 @ChannelHandler.Sharable
-public class GeolocationHandler extends ChannelInboundHandlerAdapter {
+public class GeolocationHandler extends BasePositionHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GeolocationHandler.class);
 
@@ -49,45 +49,40 @@ public class GeolocationHandler extends ChannelInboundHandlerAdapter {
     }
 
     @Override
-    public void channelRead(final ChannelHandlerContext ctx, Object message) {
-        if (message instanceof Position) {
-            final Position position = (Position) message;
-            if ((position.getOutdated() || processInvalidPositions && !position.getValid())
-                    && position.getNetwork() != null) {
-                if (reuse) {
-                    Position lastPosition = cacheManager.getPosition(position.getDeviceId());
-                    if (lastPosition != null && position.getNetwork().equals(lastPosition.getNetwork())) {
-                        updatePosition(
-                                position, lastPosition.getLatitude(), lastPosition.getLongitude(),
-                                lastPosition.getAccuracy());
-                        ctx.fireChannelRead(position);
-                        return;
-                    }
+    public void handlePosition(Channel channel, Position position, Callback callback) {
+        if ((position.getOutdated() || processInvalidPositions && !position.getValid())
+                && position.getNetwork() != null) {
+            if (reuse) {
+                Position lastPosition = cacheManager.getPosition(position.getDeviceId());
+                if (lastPosition != null && position.getNetwork().equals(lastPosition.getNetwork())) {
+                    updatePosition(
+                            position, lastPosition.getLatitude(), lastPosition.getLongitude(),
+                            lastPosition.getAccuracy());
+                    callback.processed(position);
+                    return;
                 }
+            }
 
-                if (statisticsManager != null) {
-                    statisticsManager.registerGeolocationRequest();
-                }
+            if (statisticsManager != null) {
+                statisticsManager.registerGeolocationRequest();
+            }
 
-                geolocationProvider.getLocation(position.getNetwork(),
-                        new GeolocationProvider.LocationProviderCallback() {
-                    @Override
-                    public void onSuccess(double latitude, double longitude, double accuracy) {
-                        updatePosition(position, latitude, longitude, accuracy);
-                        ctx.fireChannelRead(position);
-                    }
+            geolocationProvider.getLocation(position.getNetwork(),
+                    new GeolocationProvider.LocationProviderCallback() {
+                @Override
+                public void onSuccess(double latitude, double longitude, double accuracy) {
+                    updatePosition(position, latitude, longitude, accuracy);
+                    callback.processed(position);
+                }
 
-                    @Override
-                    public void onFailure(Throwable e) {
-                        LOGGER.warn("Geolocation network error", e);
-                        ctx.fireChannelRead(position);
-                    }
-                });
-            } else {
-                ctx.fireChannelRead(position);
-            }
+                @Override
+                public void onFailure(Throwable e) {
+                    LOGGER.warn("Geolocation network error", e);
+                    callback.processed(position);
+                }
+            });
         } else {
-            ctx.fireChannelRead(message);
+            callback.processed(position);
         }
     }
 
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.handler;
+
+import com.google.inject.Injector;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.EventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.BasePositionHandler;
+import org.traccar.DeviceEventExecutor;
+import org.traccar.EtollDataHandler;
+import org.traccar.MainEventHandler;
+import org.traccar.WebDataHandler;
+import org.traccar.database.StoragePressure;
+import org.traccar.handler.events.AlertEventHandler;
+import org.traccar.handler.events.BehaviorEventHandler;
+import org.traccar.handler.events.CommandResultEventHandler;
+import org.traccar.handler.events.DriverEventHandler;
+import org.traccar.handler.events.FuelEventHandler;
+import org.traccar.handler.events.GeofenceEventHandler;
+import org.traccar.handler.events.IgnitionEventHandler;
+import org.traccar.handler.events.MaintenanceEventHandler;
+import org.traccar.handler.events.MediaEventHandler;
+import org.traccar.handler.events.MotionEventHandler;
+import org.traccar.handler.events.OverspeedEventHandler;
+import org.traccar.model.Position;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Runs all enabled position handlers in a single pipeline stage. The chain is resolved once, so disabled handlers are
+ * skipped completely. Asynchronous handlers (geocoding, geolocation, speed limits, batched writes) suspend the chain,
+ * which is resumed when the result is available. If the device executor is configured, positions are processed on the
+ * shard of the device, otherwise on the channel event loop.
+ * <p>
+ * Multiple positions decoded from a single message are passed through the chain together as long as handlers support
+ * batches. Starting from the first handler that doesn't, each position continues individually in the original order.
+ * <p>
+ * If backlog processing is enabled, historical positions are processed by a separate lightweight chain. Handlers that
+ * depend on the previous position of the device being the cached latest one (filtering, copied attributes, engine
+ * hours) are not part of it. If storing historical positions fails, the positions that were not stored are processed
+ * by the regular chain instead.
+ */
+@Singleton
+@ChannelHandler.Sharable
+public class ProcessingHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProcessingHandler.class);
+
+    private static final List<Class<? extends BasePositionHandler>> HANDLER_CLASSES = List.of(
+            TimeHandler.class,
+            GeolocationHandler.class,
+            HemisphereHandler.class,
+            DistanceHandler.class,
+            RemoteAddressHandler.class,
+            FilterHandler.class,
+            EtollDataHandler.class,
+            GeocoderHandler.class,
+            SpeedLimitHandler.class,
+            MotionHandler.class,
+            CopyAttributesHandler.class,
+            EngineHoursHandler.class,
+            ComputedAttributesHandler.class,
+            WebDataHandler.class,
+            DefaultDataHandler.class,
+            MediaEventHandler.class,
+            CommandResultEventHandler.class,
+            OverspeedEventHandler.class,
+            BehaviorEventHandler.class,
+            FuelEventHandler.class,
+            MotionEventHandler.class,
+            GeofenceEventHandler.class,
+            AlertEventHandler.class,
+            IgnitionEventHandler.class,
+            MaintenanceEventHandler.class,
+            DriverEventHandler.class,
+            MainEventHandler.class);
+
+    private static final List<Class<? extends BasePositionHandler>> BACKLOG_HANDLER_CLASSES = List.of(
+            TimeHandler.class,
+            HemisphereHandler.class,
+            RemoteAddressHandler.class,
+            MotionHandler.class,
+            ComputedAttributesHandler.class,
+            WebDataHandler.class,
+            BacklogHandler.class,
+            MainEventHandler.class);
+
+    private final BasePositionHandler[] handlers;
+    private final BasePositionHandler[] backlogHandlers;
+    private final BacklogHandler backlogHandler;
+    private final StoragePressure storagePressure;
+    private final DeviceEventExecutor deviceEventExecutor;
+
+    @Inject
+    public ProcessingHandler(Injector injector) {
+        storagePressure = injector.getInstance(StoragePressure.class);
+        deviceEventExecutor = injector.getInstance(DeviceEventExecutor.class);
+        handlers = createChain(injector, HANDLER_CLASSES);
+        backlogHandler = injector.getInstance(BacklogHandler.class);
+        backlogHandlers = backlogHandler.isEnabled() ? createChain(injector, BACKLOG_HANDLER_CLASSES) : null;
+    }
+
+    private static BasePositionHandler[] createChain(
+            Injector injector, List<Class<? extends BasePositionHandler>> handlerClasses) {
+        List<BasePositionHandler> enabledHandlers = new ArrayList<>();
+        for (Class<? extends BasePositionHandler> handlerClass : handlerClasses) {
+            BasePositionHandler handler = injector.getInstance(handlerClass);
+            if (handler != null && handler.isEnabled()) {
+                enabledHandlers.add(handler);
+            }
+        }
+        LOGGER.info("Position processing chain: {}", enabledHandlers.stream()
+                .map(handler -> handler.getClass().getSimpleName()).collect(Collectors.joining(", ")));
+        return enabledHandlers.toArray(new BasePositionHandler[0]);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof Position) {
+            storagePressure.registerMessage(ctx.channel());
+            execute(ctx, ((Position) msg).getDeviceId(), () -> processMessage(ctx, msg));
+        } else if (msg instanceof List && !((List<?>) msg).isEmpty()) {
+            storagePressure.registerMessage(ctx.channel());
+            for (List<Position> devicePositions : groupByDevice((List<Position>) msg)) {
+                execute(ctx, devicePositions.get(0).getDeviceId(), () -> processMessage(ctx, devicePositions));
+            }
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    /**
+     * Split positions by device, so that each device is processed on its own shard. Some messages contain positions
+     * of several devices.
+     */
+    private static Collection<List<Position>> groupByDevice(List<Position> positions) {
+        long deviceId = positions.get(0).getDeviceId();
+        if (positions.stream().allMatch(position -> position.getDeviceId() == deviceId)) {
+            return List.of(positions);
+        }
+        Map<Long, List<Position>> devicePositions = new LinkedHashMap<>();
+        for (Position position : positions) {
+            devicePositions.computeIfAbsent(position.getDeviceId(), k -> new ArrayList<>()).add(position);
+        }
+        return devicePositions.values();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void processMessage(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof Position) {
+            Position position = (Position) msg;
+            if (backlogHandlers != null && backlogHandler.isBacklog(position)) {
+                processPosition(ctx, backlogHandlers, position, 0);
+            } else {
+                processPosition(ctx, handlers, position, 0);
+            }
+        } else {
+            List<Position> positions = (List<Position>) msg;
+            if (backlogHandlers != null) {
+                List<Position> backlog = new ArrayList<>();
+                List<Position> live = new ArrayList<>();
+                for (Position position : positions) {
+                    if (backlogHandler.isBacklog(position)) {
+                        backlog.add(position);
+                    } else {
+                        live.add(position);
+                    }
+                }
+                if (!backlog.isEmpty()) {
+                    processPositions(ctx, backlogHandlers, backlog, 0);
+                }
+                if (!live.isEmpty()) {
+                    processPositions(ctx, handlers, live, 0);
+                }
+            } else {
+                processPositions(ctx, handlers, positions, 0);
+            }
+        }
+    }
+
+    private void processPosition(
+            ChannelHandlerContext ctx, BasePositionHandler[] chain, Position position, int index) {
+        if (index < chain.length) {
+            try {
+                chain[index].handlePosition(
+                        ctx.channel(), position, result -> resumePosition(ctx, chain, result, index + 1));
+            } catch (Exception e) {
+                handleError(ctx, chain[index], List.of(position), e);
+            }
+        }
+    }
+
+    private void processPositions(
+            ChannelHandlerContext ctx, BasePositionHandler[] chain, List<Position> positions, int index) {
+        if (index < chain.length && chain[index].isBatchSupported()) {
+            try {
+                chain[index].handlePositions(
+                        ctx.channel(), positions, result -> resumePositions(ctx, chain, result, index + 1));
+            } catch (Exception e) {
+                handleError(ctx, chain[index], positions, e);
+            }
+        } else {
+            for (Position position : positions) {
+                processPosition(ctx, chain, position, index);
+            }
+        }
+    }
+
+    private void handleError(
+            ChannelHandlerContext ctx, BasePositionHandler handler, List<Position> positions, Exception error) {
+        if (handler == backlogHandler) {
+            List<Position> failed = positions.stream()
+                    .filter(position -> position.getId() == 0)
+                    .collect(Collectors.toList());
+            LOGGER.warn("Failed to store {} historical positions, using regular processing", failed.size(), error);
+            if (!failed.isEmpty()) {
+                processPositions(ctx, handlers, failed, 0);
+            }
+        } else {
+            ctx.fireExceptionCaught(error);
+        }
+    }
+
+    /**
+     * Run the task on the shard of the device if device executor is configured, otherwise on the channel executor.
+     */
+    private void execute(ChannelHandlerContext ctx, long deviceId, Runnable task) {
+        EventExecutor executor = deviceEventExecutor != null ? deviceEventExecutor.getShard(deviceId) : ctx.executor();
+        if (executor.inEventLoop()) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    private void resumePositions(
+            ChannelHandlerContext ctx, BasePositionHandler[] chain, List<Position> positions, int index) {
+        if (!positions.isEmpty()) {
+            for (List<Position> devicePositions : groupByDevice(positions)) {
+                execute(ctx, devicePositions.get(0).getDeviceId(),
+                        () -> processPositions(ctx, chain, devicePositions, index));
+            }
+        }
+    }
+
+    private void resumePosition(
+            ChannelHandlerContext ctx, BasePositionHandler[] chain, Position position, int index) {
+        if (position != null) {
+            execute(ctx, position.getDeviceId(), () -> processPosition(ctx, chain, position, index));
+        }
+    }
+
+}
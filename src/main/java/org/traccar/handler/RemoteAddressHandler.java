@@ -15,9 +15,9 @@
  */
 package org.traccar.handler;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.traccar.BasePositionHandler;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
 import org.traccar.model.Position;
@@ -28,7 +28,7 @@ import java.net.InetSocketAddress;
 
 @Singleton
 @ChannelHandler.Sharable
-public class RemoteAddressHandler extends ChannelInboundHandlerAdapter {
+public class RemoteAddressHandler extends BasePositionHandler {
 
     private final boolean enabled;
 
@@ -38,19 +38,20 @@ public class RemoteAddressHandler extends ChannelInboundHandlerAdapter {
     }
 
     @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void handlePosition(Channel channel, Position position, Callback callback) {
 
         if (enabled) {
-            InetSocketAddress remoteAddress = (InetSocketAddress) ctx.channel().remoteAddress();
+            InetSocketAddress remoteAddress = (InetSocketAddress) channel.remoteAddress();
             String hostAddress = remoteAddress != null ? remoteAddress.getAddress().getHostAddress() : null;
-
-            if (msg instanceof Position) {
-                Position position = (Position) msg;
-                position.set(Position.KEY_IP, hostAddress);
-            }
+            position.set(Position.KEY_IP, hostAddress);
         }
 
-        ctx.fireChannelRead(msg);
+        callback.processed(position);
     }
 
 }
@@ -15,11 +15,11 @@
  */
 package org.traccar.handler;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.traccar.BasePositionHandler;
 import org.traccar.model.Position;
 import org.traccar.speedlimit.SpeedLimitProvider;
 
@@ -28,7 +28,7 @@ import javax.inject.Singleton;
 
 @Singleton
 @ChannelHandler.Sharable
-public class SpeedLimitHandler extends ChannelInboundHandlerAdapter {
+public class SpeedLimitHandler extends BasePositionHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SpeedLimitHandler.class);
 
@@ -40,26 +40,21 @@ public class SpeedLimitHandler extends ChannelInboundHandlerAdapter {
     }
 
     @Override
-    public void channelRead(final ChannelHandlerContext ctx, Object message) {
-        if (message instanceof Position) {
-            final Position position = (Position) message;
-            speedLimitProvider.getSpeedLimit(position.getLatitude(), position.getLongitude(),
-                    new SpeedLimitProvider.SpeedLimitProviderCallback() {
-                @Override
-                public void onSuccess(double speedLimit) {
-                    position.set(Position.KEY_SPEED_LIMIT, speedLimit);
-                    ctx.fireChannelRead(position);
-                }
-
-                @Override
-                public void onFailure(Throwable e) {
-                    LOGGER.warn("Speed limit provider failed", e);
-                    ctx.fireChannelRead(position);
-                }
-            });
-        } else {
-            ctx.fireChannelRead(message);
-        }
+    public void handlePosition(Channel channel, Position position, Callback callback) {
+        speedLimitProvider.getSpeedLimit(position.getLatitude(), position.getLongitude(),
+                new SpeedLimitProvider.SpeedLimitProviderCallback() {
+            @Override
+            public void onSuccess(double speedLimit) {
+                position.set(Position.KEY_SPEED_LIMIT, speedLimit);
+                callback.processed(position);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                LOGGER.warn("Speed limit provider failed", e);
+                callback.processed(position);
+            }
+        });
     }
 
 }
@@ -15,10 +15,9 @@
  */
 package org.traccar.handler;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
-import org.traccar.BaseProtocolDecoder;
+import org.traccar.BasePositionHandler;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
 import org.traccar.model.Position;
@@ -31,7 +30,7 @@ import java.util.Set;
 
 @Singleton
 @ChannelHandler.Sharable
-public class TimeHandler extends ChannelInboundHandlerAdapter {
+public class TimeHandler extends BasePositionHandler {
 
     private final boolean enabled;
     private final boolean useServerTime;
@@ -54,12 +53,15 @@ public class TimeHandler extends ChannelInboundHandlerAdapter {
     }
 
     @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void handlePosition(Channel channel, Position position, Callback callback) {
 
-        if (enabled && msg instanceof Position && (protocols == null
-                || protocols.contains(ctx.pipeline().get(BaseProtocolDecoder.class).getProtocolName()))) {
+        if (enabled && (protocols == null || protocols.contains(position.getProtocol()))) {
 
-            Position position = (Position) msg;
             if (useServerTime) {
                 position.setDeviceTime(position.getServerTime());
                 position.setFixTime(position.getServerTime());
@@ -68,7 +70,7 @@ public class TimeHandler extends ChannelInboundHandlerAdapter {
             }
 
         }
-        ctx.fireChannelRead(msg);
+        callback.processed(position);
     }
 
 }
@@ -33,6 +33,11 @@ public abstract class BaseEventHandler extends BaseDataHandler {
         this.notificationManager = notificationManager;
     }
 
+    @Override
+    public boolean isBatchSupported() {
+        return false;
+    }
+
     @Override
     protected Position handlePosition(Position position) {
         Map<Event, Position> events = analyzePosition(position);
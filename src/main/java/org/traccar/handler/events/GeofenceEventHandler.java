@@ -17,6 +17,7 @@ package org.traccar.handler.events;
 
 import io.netty.channel.ChannelHandler;
 import org.traccar.config.Config;
+import org.traccar.database.DeviceStateWriter;
 import org.traccar.helper.model.GeofenceUtil;
 import org.traccar.helper.model.PositionUtil;
 import org.traccar.model.Calendar;
@@ -26,11 +27,7 @@ import org.traccar.model.Geofence;
 import org.traccar.model.Position;
 import org.traccar.session.ConnectionManager;
 import org.traccar.session.cache.CacheManager;
-import org.traccar.storage.Storage;
 import org.traccar.storage.StorageException;
-import org.traccar.storage.query.Columns;
-import org.traccar.storage.query.Condition;
-import org.traccar.storage.query.Request;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -46,15 +43,16 @@ public class GeofenceEventHandler extends BaseEventHandler {
     private final Config config;
     private final CacheManager cacheManager;
     private final ConnectionManager connectionManager;
-    private final Storage storage;
+    private final DeviceStateWriter deviceStateWriter;
 
     @Inject
     public GeofenceEventHandler(
-            Config config, CacheManager cacheManager, ConnectionManager connectionManager, Storage storage) {
+            Config config, CacheManager cacheManager, ConnectionManager connectionManager,
+            DeviceStateWriter deviceStateWriter) {
         this.config = config;
         this.cacheManager = cacheManager;
         this.connectionManager = connectionManager;
-        this.storage = storage;
+        this.deviceStateWriter = deviceStateWriter;
     }
 
     @Override
@@ -81,9 +79,7 @@ public class GeofenceEventHandler extends BaseEventHandler {
             device.setGeofenceIds(currentGeofences.isEmpty() ? null : currentGeofences);
 
             try {
-                storage.updateObject(device, new Request(
-                        new Columns.Include("geofenceIds"),
-                        new Condition.Equals("id", device.getId())));
+                deviceStateWriter.updateDevice(device, "geofenceIds");
             } catch (StorageException e) {
                 throw new RuntimeException("Update device geofences error", e);
             }
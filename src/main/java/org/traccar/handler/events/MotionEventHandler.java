@@ -19,6 +19,7 @@ package org.traccar.handler.events;
 import io.netty.channel.ChannelHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.traccar.database.DeviceStateWriter;
 import org.traccar.helper.model.PositionUtil;
 import org.traccar.model.Device;
 import org.traccar.model.Event;
@@ -27,11 +28,7 @@ import org.traccar.reports.common.TripsConfig;
 import org.traccar.session.cache.CacheManager;
 import org.traccar.session.state.MotionProcessor;
 import org.traccar.session.state.MotionState;
-import org.traccar.storage.Storage;
 import org.traccar.storage.StorageException;
-import org.traccar.storage.query.Columns;
-import org.traccar.storage.query.Condition;
-import org.traccar.storage.query.Request;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -45,14 +42,14 @@ public class MotionEventHandler extends BaseEventHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(MotionEventHandler.class);
 
     private final CacheManager cacheManager;
-    private final Storage storage;
+    private final DeviceStateWriter deviceStateWriter;
     private final TripsConfig tripsConfig;
 
     @Inject
     public MotionEventHandler(
-            CacheManager cacheManager, Storage storage, TripsConfig tripsConfig) {
+            CacheManager cacheManager, DeviceStateWriter deviceStateWriter, TripsConfig tripsConfig) {
         this.cacheManager = cacheManager;
-        this.storage = storage;
+        this.deviceStateWriter = deviceStateWriter;
         this.tripsConfig = tripsConfig;
     }
 
@@ -74,9 +71,7 @@ public class MotionEventHandler extends BaseEventHandler {
         if (state.isChanged()) {
             state.toDevice(device);
             try {
-                storage.updateObject(device, new Request(
-                        new Columns.Include("motionState", "motionTime", "motionDistance"),
-                        new Condition.Equals("id", device.getId())));
+                deviceStateWriter.updateDevice(device, "motionState", "motionTime", "motionDistance");
             } catch (StorageException e) {
                 LOGGER.warn("Update device motion error", e);
             }
@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
+import org.traccar.database.DeviceStateWriter;
 import org.traccar.helper.model.AttributeUtil;
 import org.traccar.helper.model.PositionUtil;
 import org.traccar.model.Device;
@@ -30,11 +31,7 @@ import org.traccar.model.Position;
 import org.traccar.session.cache.CacheManager;
 import org.traccar.session.state.OverspeedProcessor;
 import org.traccar.session.state.OverspeedState;
-import org.traccar.storage.Storage;
 import org.traccar.storage.StorageException;
-import org.traccar.storage.query.Columns;
-import org.traccar.storage.query.Condition;
-import org.traccar.storage.query.Request;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -48,16 +45,16 @@ public class OverspeedEventHandler extends BaseEventHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(OverspeedEventHandler.class);
 
     private final CacheManager cacheManager;
-    private final Storage storage;
+    private final DeviceStateWriter deviceStateWriter;
 
     private final long minimalDuration;
     private final boolean preferLowest;
 
     @Inject
     public OverspeedEventHandler(
-            Config config, CacheManager cacheManager, Storage storage) {
+            Config config, CacheManager cacheManager, DeviceStateWriter deviceStateWriter) {
         this.cacheManager = cacheManager;
-        this.storage = storage;
+        this.deviceStateWriter = deviceStateWriter;
         minimalDuration = config.getLong(Keys.EVENT_OVERSPEED_MINIMAL_DURATION) * 1000;
         preferLowest = config.getBoolean(Keys.EVENT_OVERSPEED_PREFER_LOWEST);
     }
@@ -111,9 +108,7 @@ public class OverspeedEventHandler extends BaseEventHandler {
         if (state.isChanged()) {
             state.toDevice(device);
             try {
-                storage.updateObject(device, new Request(
-                        new Columns.Include("overspeedState", "overspeedTime", "overspeedGeofenceId"),
-                        new Condition.Equals("id", device.getId())));
+                deviceStateWriter.updateDevice(device, "overspeedState", "overspeedTime", "overspeedGeofenceId");
             } catch (StorageException e) {
                 LOGGER.warn("Update device overspeed error", e);
             }
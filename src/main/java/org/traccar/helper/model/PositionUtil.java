@@ -27,8 +27,14 @@ import org.traccar.storage.query.Condition;
 import org.traccar.storage.query.Order;
 import org.traccar.storage.query.Request;
 
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public final class PositionUtil {
@@ -41,6 +47,18 @@ public final class PositionUtil {
         return lastPosition == null || position.getFixTime().compareTo(lastPosition.getFixTime()) >= 0;
     }
 
+    /**
+     * Returns position preceding the given one. Normally it's the last known position, but for out of order records
+     * the position is looked up by fix time.
+     */
+    public static Position getPrecedingPosition(
+            CacheManager cacheManager, Position position, Position last) throws StorageException {
+        if (last != null && position.getFixTime() != null && position.getFixTime().before(last.getFixTime())) {
+            return cacheManager.getPrecedingPosition(position.getDeviceId(), position.getFixTime());
+        }
+        return last;
+    }
+
     public static double calculateDistance(Position first, Position last, boolean useOdometer) {
         double distance;
         double firstOdometer = first.getDouble(Position.KEY_ODOMETER);
@@ -54,14 +72,78 @@ public final class PositionUtil {
         return distance;
     }
 
+    /**
+     * Returns positions of the device ordered by fix time, including archived positions.
+     */
     public static List<Position> getPositions(
             Storage storage, long deviceId, Date from, Date to) throws StorageException {
-        return storage.getObjects(Position.class, new Request(
+        List<Position> positions = storage.getObjects(Position.class, new Request(
                 new Columns.All(),
                 new Condition.And(
                         new Condition.Equals("deviceId", deviceId),
                         new Condition.Between("fixTime", "from", from, "to", to)),
                 new Order("fixTime")));
+        List<Position> archived = storage.getArchivedPositions(deviceId, from, to);
+        if (!archived.isEmpty()) {
+            archived.addAll(positions);
+            archived.sort(Comparator.comparing(Position::getFixTime));
+            return archived;
+        }
+        return positions;
+    }
+
+    /**
+     * Returns a page of positions of the given devices ordered by fix time and id. The keyset condition is optional
+     * and selects positions following the last item of the previous page. Archived positions are not included.
+     */
+    public static List<Position> getPositions(
+            Storage storage, Collection<Long> deviceIds, Date from, Date to,
+            Condition.Keyset keyset, int limit) throws StorageException {
+        if (deviceIds.isEmpty()) {
+            return new LinkedList<>();
+        }
+        var conditions = new LinkedList<Condition>();
+        if (deviceIds.size() == 1) {
+            conditions.add(new Condition.Equals("deviceId", deviceIds.iterator().next()));
+        } else {
+            conditions.add(new Condition.In("deviceId", "deviceId", deviceIds));
+        }
+        conditions.add(new Condition.Between("fixTime", "from", from, "to", to));
+        if (keyset != null) {
+            conditions.add(keyset);
+        }
+        return storage.getObjects(Position.class, new Request(
+                new Columns.All(), Condition.merge(conditions), new Order("fixTime", "id", false, limit)));
+    }
+
+    /**
+     * Pass positions of the device to the consumer ordered by fix time. Archived positions are merged into the stream
+     * and read one day block at a time.
+     */
+    public static void streamPositions(
+            Storage storage, long deviceId, Date from, Date to, Consumer<Position> consumer) throws StorageException {
+        try {
+            Iterator<Position> archived = storage.iterateArchivedPositions(deviceId, from, to);
+            Position[] next = {archived.hasNext() ? archived.next() : null};
+            storage.streamObjects(Position.class, new Request(
+                    new Columns.All(),
+                    new Condition.And(
+                            new Condition.Equals("deviceId", deviceId),
+                            new Condition.Between("fixTime", "from", from, "to", to)),
+                    new Order("fixTime")), position -> {
+                        while (next[0] != null && next[0].getFixTime().before(position.getFixTime())) {
+                            consumer.accept(next[0]);
+                            next[0] = archived.hasNext() ? archived.next() : null;
+                        }
+                        consumer.accept(position);
+                    });
+            if (next[0] != null) {
+                consumer.accept(next[0]);
+                archived.forEachRemaining(consumer);
+            }
+        } catch (UncheckedIOException e) {
+            throw new StorageException(e.getCause());
+        }
     }
 
     public static List<Position> getLatestPositions(Storage storage, long userId) throws StorageException {
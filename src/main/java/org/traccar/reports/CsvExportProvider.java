@@ -22,13 +22,20 @@ import org.traccar.storage.Storage;
 import org.traccar.storage.StorageException;
 
 import javax.inject.Inject;
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Objects;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class CsvExportProvider {
 
@@ -39,14 +46,12 @@ public class CsvExportProvider {
         this.storage = storage;
     }
 
+    /**
+     * Export positions in a single pass over the storage. Rows are written to a temporary file while the attribute
+     * columns are collected, then the header is written and the rows are copied, padded to the final column count.
+     */
     public void generate(
-            OutputStream outputStream, long deviceId, Date from, Date to) throws StorageException {
-
-        var positions = PositionUtil.getPositions(storage, deviceId, from, to);
-
-        var attributes = positions.stream()
-                .flatMap((position -> position.getAttributes().keySet().stream()))
-                .collect(Collectors.toUnmodifiableSet());
+            OutputStream outputStream, long deviceId, Date from, Date to) throws StorageException, IOException {
 
         var properties = new LinkedHashMap<String, Function<Position, Object>>();
         properties.put("id", Position::getId);
@@ -63,13 +68,38 @@ public class CsvExportProvider {
         properties.put("course", Position::getCourse);
         properties.put("address", Position::getAddress);
         properties.put("accuracy", Position::getAccuracy);
-        attributes.forEach(key -> properties.put(key, position -> position.getAttributes().get(key)));
 
-        try (PrintWriter writer = new PrintWriter(outputStream)) {
-            writer.println(String.join(",", properties.keySet()));
-            positions.forEach(position -> writer.println(properties.values().stream()
-                    .map(f -> Objects.toString(f.apply(position), ""))
-                    .collect(Collectors.joining(","))));
+        var attributes = new LinkedHashSet<String>();
+
+        Path rows = Files.createTempFile("positions", ".csv");
+        try {
+            // each row is prefixed with the number of attribute columns known when it was written
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(rows, StandardCharsets.UTF_8))) {
+                PositionUtil.streamPositions(storage, deviceId, from, to, position -> {
+                    attributes.addAll(position.getAttributes().keySet());
+                    writer.print(attributes.size());
+                    writer.print(':');
+                    writer.println(Stream.concat(
+                            properties.values().stream().map(f -> f.apply(position)),
+                            attributes.stream().map(key -> position.getAttributes().get(key)))
+                            .map(value -> Objects.toString(value, ""))
+                            .collect(Collectors.joining(",")));
+                });
+            }
+
+            try (BufferedReader reader = Files.newBufferedReader(rows, StandardCharsets.UTF_8);
+                 PrintWriter writer = new PrintWriter(outputStream)) {
+                writer.println(String.join(",", Stream.concat(
+                        properties.keySet().stream(), attributes.stream()).collect(Collectors.toList())));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int separator = line.indexOf(':');
+                    writer.print(line.substring(separator + 1));
+                    writer.println(",".repeat(attributes.size() - Integer.parseInt(line.substring(0, separator))));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(rows);
         }
     }
 
@@ -45,7 +45,9 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class EventsReportProvider {
 
@@ -79,20 +81,50 @@ public class EventsReportProvider {
             Collection<Event> events = getEvents(device.getId(), from, to);
             boolean all = types.isEmpty() || types.contains(Event.ALL_EVENTS);
             for (Event event : events) {
-                if (all || types.contains(event.getType())) {
-                    long geofenceId = event.getGeofenceId();
-                    long maintenanceId = event.getMaintenanceId();
-                    if ((geofenceId == 0 || reportUtils.getObject(userId, Geofence.class, geofenceId) != null)
-                            && (maintenanceId == 0
-                            || reportUtils.getObject(userId, Maintenance.class, maintenanceId) != null)) {
-                       result.add(event);
-                    }
+                if ((all || types.contains(event.getType())) && isAccessible(userId, event)) {
+                    result.add(event);
                 }
             }
         }
         return result;
     }
 
+    /**
+     * Returns a page of events ordered by event time and id. Events are not checked for geofence and maintenance
+     * access, so the caller can derive the next cursor from the last row before filtering with
+     * {@link #isAccessible(long, Event)}.
+     */
+    public List<Event> getObjects(
+            long userId, Collection<Long> deviceIds, Collection<Long> groupIds,
+            Collection<String> types, Date from, Date to, Condition.Keyset keyset, int limit) throws StorageException {
+        reportUtils.checkPeriodLimit(from, to);
+
+        var accessibleDeviceIds = reportUtils.getAccessibleDevices(userId, deviceIds, groupIds).stream()
+                .map(Device::getId)
+                .collect(Collectors.toList());
+        if (accessibleDeviceIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        var conditions = new LinkedList<Condition>();
+        conditions.add(new Condition.In("deviceId", "deviceId", accessibleDeviceIds));
+        conditions.add(new Condition.Between("eventTime", "from", from, "to", to));
+        if (!types.isEmpty() && !types.contains(Event.ALL_EVENTS)) {
+            conditions.add(new Condition.In("type", "type", types));
+        }
+        if (keyset != null) {
+            conditions.add(keyset);
+        }
+        return storage.getObjects(Event.class, new Request(
+                new Columns.All(), Condition.merge(conditions), new Order("eventTime", "id", false, limit)));
+    }
+
+    public boolean isAccessible(long userId, Event event) throws StorageException {
+        long geofenceId = event.getGeofenceId();
+        long maintenanceId = event.getMaintenanceId();
+        return (geofenceId == 0 || reportUtils.getObject(userId, Geofence.class, geofenceId) != null)
+                && (maintenanceId == 0 || reportUtils.getObject(userId, Maintenance.class, maintenanceId) != null);
+    }
+
     public void getExcel(
             OutputStream outputStream, long userId, Collection<Long> deviceIds, Collection<Long> groupIds,
             Collection<String> types, Date from, Date to) throws StorageException, IOException {
@@ -16,6 +16,8 @@
  */
 package org.traccar.reports;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.poi.ss.util.WorkbookUtil;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
@@ -37,33 +39,60 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class RouteReportProvider {
 
     private final Config config;
     private final ReportUtils reportUtils;
     private final Storage storage;
+    private final ObjectMapper objectMapper;
 
     @Inject
-    public RouteReportProvider(Config config, ReportUtils reportUtils, Storage storage) {
+    public RouteReportProvider(Config config, ReportUtils reportUtils, Storage storage, ObjectMapper objectMapper) {
         this.config = config;
         this.reportUtils = reportUtils;
         this.storage = storage;
+        this.objectMapper = objectMapper;
     }
 
-    public Collection<Position> getObjects(long userId, Collection<Long> deviceIds, Collection<Long> groupIds,
-            Date from, Date to) throws StorageException {
+    public void getJson(OutputStream outputStream,
+            long userId, Collection<Long> deviceIds, Collection<Long> groupIds,
+            Date from, Date to) throws StorageException, IOException {
         reportUtils.checkPeriodLimit(from, to);
 
-        ArrayList<Position> result = new ArrayList<>();
-        for (Device device: reportUtils.getAccessibleDevices(userId, deviceIds, groupIds)) {
-            result.addAll(PositionUtil.getPositions(storage, device.getId(), from, to));
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.writeStartArray();
+            for (Device device: reportUtils.getAccessibleDevices(userId, deviceIds, groupIds)) {
+                PositionUtil.streamPositions(storage, device.getId(), from, to, position -> {
+                    try {
+                        generator.writeObject(position);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            generator.writeEndArray();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return result;
+    }
+
+    public List<Position> getObjects(
+            long userId, Collection<Long> deviceIds, Collection<Long> groupIds,
+            Date from, Date to, Condition.Keyset keyset, int limit) throws StorageException {
+        reportUtils.checkPeriodLimit(from, to);
+
+        var accessibleDeviceIds = reportUtils.getAccessibleDevices(userId, deviceIds, groupIds).stream()
+                .map(Device::getId)
+                .collect(Collectors.toList());
+        return PositionUtil.getPositions(storage, accessibleDeviceIds, from, to, keyset, limit);
     }
 
     public void getExcel(OutputStream outputStream,
@@ -17,16 +17,20 @@ package org.traccar.schedule;
 
 import com.google.inject.Injector;
 import org.traccar.LifecycleObject;
+import org.traccar.storage.StorageWorkload;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Singleton
 public class ScheduleManager implements LifecycleObject {
 
+    private static final long SHUTDOWN_TIMEOUT = 10;
+
     private final Injector injector;
     private ScheduledExecutorService executor;
 
@@ -37,16 +41,22 @@ public class ScheduleManager implements LifecycleObject {
 
     @Override
     public void start() {
-        executor = Executors.newSingleThreadScheduledExecutor();
-        List.of(TaskDeviceInactivityCheck.class, TaskWebSocketKeepalive.class, TaskHealthCheck.class)
+        executor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(StorageWorkload.BACKGROUND.wrap(runnable), "schedule-manager"));
+        List.of(TaskDeviceInactivityCheck.class, TaskWebSocketKeepalive.class, TaskHealthCheck.class,
+                TaskExecutorStatistics.class, TaskStoragePressure.class, TaskDatabaseStatistics.class,
+                TaskPartitionRetention.class, TaskPositionArchive.class, TaskCacheSnapshot.class)
                 .forEach(task -> injector.getInstance(task).schedule(executor));
     }
 
     @Override
-    public void stop() {
+    public void stop() throws InterruptedException {
         if (executor != null) {
             executor.shutdown();
+            executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
             executor = null;
+            // network servers are stopped before the scheduler, so the final snapshot has the latest positions
+            injector.getInstance(TaskCacheSnapshot.class).run();
         }
     }
 
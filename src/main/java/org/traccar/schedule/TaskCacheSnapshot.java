@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.schedule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.session.cache.CacheManager;
+import org.traccar.storage.PositionSnapshot;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class TaskCacheSnapshot implements ScheduleTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskCacheSnapshot.class);
+
+    private final PositionSnapshot positionSnapshot;
+    private final CacheManager cacheManager;
+
+    @Inject
+    public TaskCacheSnapshot(PositionSnapshot positionSnapshot, CacheManager cacheManager) {
+        this.positionSnapshot = positionSnapshot;
+        this.cacheManager = cacheManager;
+    }
+
+    @Override
+    public void schedule(ScheduledExecutorService executor) {
+        if (positionSnapshot.isEnabled()) {
+            long interval = positionSnapshot.getInterval();
+            executor.scheduleAtFixedRate(this, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (positionSnapshot.isEnabled()) {
+            try {
+                cacheManager.writeSnapshot();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to write position snapshot", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.schedule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.storage.PoolMetrics;
+
+import javax.inject.Inject;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class TaskDatabaseStatistics implements ScheduleTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskDatabaseStatistics.class);
+
+    private static final long PERIOD_MINUTES = 1;
+
+    private final PoolMetrics poolMetrics;
+
+    @Inject
+    public TaskDatabaseStatistics(PoolMetrics poolMetrics) {
+        this.poolMetrics = poolMetrics;
+    }
+
+    @Override
+    public void schedule(ScheduledExecutorService executor) {
+        executor.scheduleAtFixedRate(this, PERIOD_MINUTES, PERIOD_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void run() {
+        for (PoolMetrics.Pool pool : poolMetrics.getPools()) {
+            long[] histogram = pool.resetHistogram();
+            long count = 0;
+            StringBuilder buckets = new StringBuilder();
+            for (int i = 0; i < histogram.length; i++) {
+                count += histogram[i];
+                if (i > 0) {
+                    buckets.append(", ");
+                }
+                if (i < PoolMetrics.BUCKETS.length) {
+                    buckets.append('<').append(PoolMetrics.BUCKETS[i]);
+                } else {
+                    buckets.append(">=").append(PoolMetrics.BUCKETS[i - 1]);
+                }
+                buckets.append(" ms: ").append(histogram[i]);
+            }
+            double acquireTime = pool.resetAcquireTime();
+            LOGGER.info("Database pool {} active: {}, idle: {}, pending: {}, acquired: {}, average acquire: {} ms, "
+                    + "timeouts: {}, histogram: [{}]",
+                    pool.getName(), pool.getActiveConnections(), pool.getIdleConnections(), pool.getPendingThreads(),
+                    count, String.format("%.1f", count > 0 ? acquireTime / count : 0.0), pool.resetTimeouts(),
+                    buckets);
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.schedule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.DeviceEventExecutor;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class TaskExecutorStatistics implements ScheduleTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskExecutorStatistics.class);
+
+    private static final long PERIOD_MINUTES = 1;
+
+    private final DeviceEventExecutor executor;
+
+    @Inject
+    public TaskExecutorStatistics(@Nullable DeviceEventExecutor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void schedule(ScheduledExecutorService executor) {
+        if (this.executor != null) {
+            executor.scheduleAtFixedRate(this, PERIOD_MINUTES, PERIOD_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    @Override
+    public void run() {
+        for (DeviceEventExecutor.Shard shard : executor.getShards()) {
+            LOGGER.info("Processing thread {} queue: {}, tasks: {}, average wait: {} ms, max wait: {} ms",
+                    shard.getIndex(), shard.getQueueSize(), shard.getTaskCount(),
+                    String.format("%.1f", shard.resetAverageWait()), String.format("%.1f", shard.resetMaxWait()));
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.schedule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.storage.PartitionManager;
+
+import javax.inject.Inject;
+import java.sql.SQLException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class TaskPartitionRetention implements ScheduleTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskPartitionRetention.class);
+
+    private final PartitionManager partitionManager;
+
+    @Inject
+    public TaskPartitionRetention(PartitionManager partitionManager) {
+        this.partitionManager = partitionManager;
+    }
+
+    @Override
+    public void schedule(ScheduledExecutorService executor) {
+        if (partitionManager.isEnabled()) {
+            executor.scheduleAtFixedRate(this, 1, 1, TimeUnit.DAYS);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            partitionManager.update();
+        } catch (SQLException e) {
+            LOGGER.warn("Partition maintenance failed", e);
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.schedule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.model.Device;
+import org.traccar.model.Position;
+import org.traccar.storage.PositionArchive;
+import org.traccar.storage.Storage;
+import org.traccar.storage.StorageException;
+import org.traccar.storage.StorageWorkload;
+import org.traccar.storage.query.Columns;
+import org.traccar.storage.query.Condition;
+import org.traccar.storage.query.Order;
+import org.traccar.storage.query.Request;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Moves positions older than the archive age from the database to the position archive. The latest position of each
+ * device is always kept in the database.
+ */
+public class TaskPositionArchive implements ScheduleTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskPositionArchive.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final Storage storage;
+    private final PositionArchive positionArchive;
+    private final int age;
+
+    @Inject
+    public TaskPositionArchive(Config config, Storage storage, PositionArchive positionArchive) {
+        this.storage = storage;
+        this.positionArchive = positionArchive;
+        age = config.getInteger(Keys.DATABASE_ARCHIVE_AGE);
+    }
+
+    @Override
+    public void schedule(ScheduledExecutorService executor) {
+        if (positionArchive.isEnabled()) {
+            executor.scheduleAtFixedRate(this, 1, 1, TimeUnit.DAYS);
+        }
+    }
+
+    @Override
+    public void run() {
+        StorageWorkload workload = StorageWorkload.current();
+        StorageWorkload.set(StorageWorkload.BACKGROUND);
+        try {
+            LocalDate cutoffDay = LocalDate.now(ZoneOffset.UTC).minusDays(age);
+            Date cutoff = Date.from(cutoffDay.atStartOfDay(ZoneOffset.UTC).toInstant());
+            var devices = storage.getObjects(Device.class, new Request(new Columns.Include("id", "positionId")));
+            long count = 0;
+            for (Device device : devices) {
+                count += archiveDevice(device, cutoff);
+            }
+            if (count > 0) {
+                LOGGER.info("Archived {} positions", count);
+            }
+        } catch (StorageException | IOException e) {
+            LOGGER.warn("Position archiving failed", e);
+        } finally {
+            StorageWorkload.set(workload);
+        }
+    }
+
+    private long archiveDevice(Device device, Date cutoff) throws StorageException, IOException {
+        long count = 0;
+        while (true) {
+            List<Position> positions = storage.getObjects(Position.class, new Request(
+                    new Columns.All(),
+                    Condition.merge(List.of(
+                            new Condition.Equals("deviceId", device.getId()),
+                            new Condition.Compare("fixTime", "<", "cutoff", cutoff),
+                            new Condition.Compare("id", "<>", "positionId", device.getPositionId()))),
+                    new Order("fixTime", "id", false, BATCH_SIZE)));
+            if (positions.isEmpty()) {
+                return count;
+            }
+
+            Map<LocalDate, List<Position>> days = new LinkedHashMap<>();
+            for (Position position : positions) {
+                LocalDate day = position.getFixTime().toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+                days.computeIfAbsent(day, key -> new ArrayList<>()).add(position);
+            }
+            for (Map.Entry<LocalDate, List<Position>> entry : days.entrySet()) {
+                positionArchive.addPositions(device.getId(), entry.getKey(), entry.getValue());
+            }
+
+            List<Long> ids = positions.stream().map(Position::getId).collect(Collectors.toList());
+            storage.removeObject(Position.class, new Request(new Condition.In("id", "id", ids)));
+            count += positions.size();
+
+            if (positions.size() < BATCH_SIZE) {
+                return count;
+            }
+        }
+    }
+
+}
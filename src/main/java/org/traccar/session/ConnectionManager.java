@@ -26,6 +26,7 @@ import org.traccar.broadcast.BroadcastService;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
 import org.traccar.database.DeviceLookupService;
+import org.traccar.database.DeviceStateWriter;
 import org.traccar.database.NotificationManager;
 import org.traccar.model.BaseModel;
 import org.traccar.model.Device;
@@ -43,6 +44,7 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -54,6 +56,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @Singleton
@@ -61,7 +64,10 @@ public class ConnectionManager implements BroadcastInterface {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionManager.class);
 
+    private static final int SWEEP_LIMIT = 1000;
+
     private final long deviceTimeout;
+    private final long sweepInterval;
 
     private final Map<Long, DeviceSession> sessionsByDeviceId = new ConcurrentHashMap<>();
     private final Map<Endpoint, Map<String, DeviceSession>> sessionsByEndpoint = new ConcurrentHashMap<>();
@@ -73,18 +79,23 @@ public class ConnectionManager implements BroadcastInterface {
     private final Timer timer;
     private final BroadcastService broadcastService;
     private final DeviceLookupService deviceLookupService;
+    private final DeviceStateWriter deviceStateWriter;
 
     private final Map<Long, Set<UpdateListener>> listeners = new HashMap<>();
     private final Map<Long, Set<Long>> userDevices = new HashMap<>();
     private final Map<Long, Set<Long>> deviceUsers = new HashMap<>();
 
-    private final Map<Long, Timeout> timeouts = new ConcurrentHashMap<>();
+    /**
+     * Online status deadlines in milliseconds, zero if the device is not tracked. Holders are reused, so a message
+     * only updates the value and doesn't allocate anything.
+     */
+    private final Map<Long, AtomicLong> deadlines = new ConcurrentHashMap<>();
 
     @Inject
     public ConnectionManager(
             Config config, CacheManager cacheManager, Storage storage,
             NotificationManager notificationManager, Timer timer, BroadcastService broadcastService,
-            DeviceLookupService deviceLookupService) {
+            DeviceLookupService deviceLookupService, DeviceStateWriter deviceStateWriter) {
         this.config = config;
         this.cacheManager = cacheManager;
         this.storage = storage;
@@ -92,8 +103,61 @@ public class ConnectionManager implements BroadcastInterface {
         this.timer = timer;
         this.broadcastService = broadcastService;
         this.deviceLookupService = deviceLookupService;
-        deviceTimeout = config.getLong(Keys.STATUS_TIMEOUT);
+        this.deviceStateWriter = deviceStateWriter;
+        deviceTimeout = TimeUnit.SECONDS.toMillis(config.getLong(Keys.STATUS_TIMEOUT));
+        sweepInterval = Math.max(1000, deviceTimeout / 60);
         broadcastService.registerListener(this);
+        timer.newTimeout(this::sweepDeadlines, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Switch devices without data for longer than the status timeout to unknown. At most a limited number of devices
+     * is handled per run and the next run starts right away if there are more.
+     */
+    private void sweepDeadlines(Timeout timeout) {
+        long now = System.currentTimeMillis();
+        List<Long> expired = new ArrayList<>();
+        for (Map.Entry<Long, AtomicLong> entry : deadlines.entrySet()) {
+            AtomicLong holder = entry.getValue();
+            long deadline = holder.get();
+            if (deadline > 0 && deadline <= now && holder.compareAndSet(deadline, 0)) {
+                expired.add(entry.getKey());
+                if (expired.size() >= SWEEP_LIMIT) {
+                    break;
+                }
+            }
+        }
+        for (long deviceId : expired) {
+            try {
+                expireDevice(deviceId);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Device status timeout error", e);
+            }
+        }
+        timer.newTimeout(
+                this::sweepDeadlines, expired.size() >= SWEEP_LIMIT ? 0 : sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Switch device with an expired deadline to unknown. The deadline is not cleared here, so a message received after
+     * the expiry keeps its new deadline. Holders of removed devices are dropped.
+     */
+    private void expireDevice(long deviceId) {
+        AtomicLong holder = deadlines.get(deviceId);
+        if (holder == null || holder.get() != 0) {
+            return;
+        }
+        if (!updateStatus(deviceId, Device.STATUS_UNKNOWN, null)) {
+            deadlines.remove(deviceId, holder);
+        }
+        removeDeviceSession(deviceId);
+    }
+
+    private void clearDeadline(long deviceId) {
+        AtomicLong holder = deadlines.get(deviceId);
+        if (holder != null) {
+            holder.set(0);
+        }
     }
 
     public DeviceSession getDeviceSession(long deviceId) {
@@ -171,6 +235,7 @@ public class ConnectionManager implements BroadcastInterface {
 
         try {
             device.setId(storage.addObject(device, new Request(new Columns.Exclude("id"))));
+            deviceLookupService.updateDevice(device);
             LOGGER.info("Automatically registered " + uniqueId);
             return device;
         } catch (StorageException e) {
@@ -211,6 +276,16 @@ public class ConnectionManager implements BroadcastInterface {
     }
 
     public void updateDevice(long deviceId, String status, Date time) {
+        if (!status.equals(Device.STATUS_ONLINE)) {
+            clearDeadline(deviceId);
+        }
+        updateStatus(deviceId, status, time);
+    }
+
+    /**
+     * Returns false if the device doesn't exist.
+     */
+    private boolean updateStatus(long deviceId, String status, Date time) {
         Device device = cacheManager.getObject(Device.class, deviceId);
         if (device == null) {
             try {
@@ -220,7 +295,7 @@ public class ConnectionManager implements BroadcastInterface {
                 LOGGER.warn("Failed to get device", e);
             }
             if (device == null) {
-                return;
+                return false;
             }
         }
 
@@ -249,28 +324,18 @@ public class ConnectionManager implements BroadcastInterface {
             device.setLastUpdate(time);
         }
 
-        Timeout timeout = timeouts.remove(deviceId);
-        if (timeout != null) {
-            timeout.cancel();
-        }
-
         if (status.equals(Device.STATUS_ONLINE)) {
-            timeouts.put(deviceId, timer.newTimeout(timeout1 -> {
-                if (!timeout1.isCancelled()) {
-                    deviceUnknown(deviceId);
-                }
-            }, deviceTimeout, TimeUnit.SECONDS));
+            deadlines.computeIfAbsent(deviceId, k -> new AtomicLong()).set(System.currentTimeMillis() + deviceTimeout);
         }
 
         try {
-            storage.updateObject(device, new Request(
-                    new Columns.Include("status", "lastUpdate"),
-                    new Condition.Equals("id", deviceId)));
+            deviceStateWriter.updateDevice(device, "status", "lastUpdate");
         } catch (StorageException e) {
             LOGGER.warn("Update device status error", e);
         }
 
         updateDevice(true, device);
+        return true;
     }
 
     public synchronized void sendKeepalive() {
@@ -286,7 +351,7 @@ public class ConnectionManager implements BroadcastInterface {
         if (local) {
             broadcastService.updateDevice(true, device);
         } else if (Device.STATUS_ONLINE.equals(device.getStatus())) {
-            timeouts.remove(device.getId());
+            clearDeadline(device.getId());
             removeDeviceSession(device.getId());
         }
         for (long userId : deviceUsers.getOrDefault(device.getId(), Collections.emptySet())) {
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.session.cache;
+
+import org.traccar.model.Attribute;
+import org.traccar.model.BaseModel;
+import org.traccar.model.Calendar;
+import org.traccar.model.Device;
+import org.traccar.model.Driver;
+import org.traccar.model.Geofence;
+import org.traccar.model.Group;
+import org.traccar.model.Maintenance;
+import org.traccar.model.Notification;
+import org.traccar.model.Permission;
+import org.traccar.model.User;
+import org.traccar.storage.Storage;
+import org.traccar.storage.StorageException;
+import org.traccar.storage.query.Columns;
+import org.traccar.storage.query.Condition;
+import org.traccar.storage.query.Request;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Objects shared between devices and permission links between them, preloaded with a few set based queries. Devices
+ * are linked to the cache using the index only, so attaching a device doesn't need to query linked objects. The index
+ * is kept up to date by the cache invalidation calls.
+ */
+class CacheIndex {
+
+    private static final List<Class<? extends BaseModel>> CLASSES = List.of(
+            Group.class, Calendar.class, User.class,
+            Attribute.class, Driver.class, Geofence.class, Maintenance.class, Notification.class);
+
+    private static final class Links {
+
+        private final Map<Long, Set<Long>> properties = new ConcurrentHashMap<>();
+        private final Map<Long, Set<Long>> owners = new ConcurrentHashMap<>();
+
+        private void add(long ownerId, long propertyId) {
+            properties.computeIfAbsent(ownerId, k -> ConcurrentHashMap.newKeySet()).add(propertyId);
+            owners.computeIfAbsent(propertyId, k -> ConcurrentHashMap.newKeySet()).add(ownerId);
+        }
+
+        private void remove(long ownerId, long propertyId) {
+            properties.computeIfPresent(ownerId, (k, ids) -> ids.remove(propertyId) && ids.isEmpty() ? null : ids);
+            owners.computeIfPresent(propertyId, (k, ids) -> ids.remove(ownerId) && ids.isEmpty() ? null : ids);
+        }
+
+        private void removeOwner(long ownerId) {
+            for (long propertyId : properties.getOrDefault(ownerId, Set.of())) {
+                remove(ownerId, propertyId);
+            }
+        }
+
+        private void removeProperty(long propertyId) {
+            for (long ownerId : owners.getOrDefault(propertyId, Set.of())) {
+                remove(ownerId, propertyId);
+            }
+        }
+
+    }
+
+    private final Storage storage;
+
+    private final Map<Class<? extends BaseModel>, Map<Long, BaseModel>> objects = new HashMap<>();
+    private final Map<List<Class<? extends BaseModel>>, Links> links = new HashMap<>();
+
+    CacheIndex(Storage storage, Iterable<Class<? extends BaseModel>> deviceClasses) {
+        this.storage = storage;
+        for (Class<? extends BaseModel> clazz : CLASSES) {
+            objects.put(clazz, new ConcurrentHashMap<>());
+        }
+        for (Class<? extends BaseModel> clazz : deviceClasses) {
+            links.put(List.of(Device.class, clazz), new Links());
+            links.put(List.of(Group.class, clazz), new Links());
+        }
+        links.put(List.of(User.class, Device.class), new Links());
+        links.put(List.of(User.class, Group.class), new Links());
+        links.put(List.of(User.class, Notification.class), new Links());
+    }
+
+    public void load() throws StorageException {
+        for (var entry : objects.entrySet()) {
+            for (BaseModel object : storage.getObjects(entry.getKey(), new Request(new Columns.All()))) {
+                entry.getValue().put(object.getId(), object);
+            }
+        }
+        for (var entry : links.entrySet()) {
+            for (Permission permission : storage.getPermissions(entry.getKey().get(0), entry.getKey().get(1))) {
+                entry.getValue().add(permission.getOwnerId(), permission.getPropertyId());
+            }
+        }
+    }
+
+    public boolean contains(Class<? extends BaseModel> clazz) {
+        return objects.containsKey(clazz);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends BaseModel> T getObject(Class<T> clazz, long id) {
+        var classObjects = objects.get(clazz);
+        return classObjects != null ? (T) classObjects.get(id) : null;
+    }
+
+    /**
+     * Ids of objects directly linked to the owner.
+     */
+    public Set<Long> getProperties(
+            Class<? extends BaseModel> ownerClass, long ownerId, Class<? extends BaseModel> propertyClass) {
+        return links.get(List.of(ownerClass, propertyClass)).properties.getOrDefault(ownerId, Set.of());
+    }
+
+    /**
+     * Ids of owners directly linked to the object.
+     */
+    public Set<Long> getOwners(
+            Class<? extends BaseModel> ownerClass, Class<? extends BaseModel> propertyClass, long propertyId) {
+        return links.get(List.of(ownerClass, propertyClass)).owners.getOrDefault(propertyId, Set.of());
+    }
+
+    public void updateObject(BaseModel object) {
+        var classObjects = objects.get(object.getClass());
+        if (classObjects != null) {
+            classObjects.put(object.getId(), object);
+        }
+    }
+
+    /**
+     * Reload object from storage. Removes the object and its links from the index if it doesn't exist anymore.
+     */
+    public void refreshObject(Class<? extends BaseModel> clazz, long id) throws StorageException {
+        var classObjects = objects.get(clazz);
+        if (classObjects != null || links.keySet().stream().anyMatch(key -> key.contains(clazz))) {
+            var object = storage.getObject(clazz, new Request(new Columns.All(), new Condition.Equals("id", id)));
+            if (object == null) {
+                removeObject(clazz, id);
+            } else if (classObjects != null) {
+                classObjects.put(id, object);
+            }
+        }
+    }
+
+    private void removeObject(Class<? extends BaseModel> clazz, long id) {
+        var classObjects = objects.get(clazz);
+        if (classObjects != null) {
+            classObjects.remove(id);
+        }
+        for (var entry : links.entrySet()) {
+            if (entry.getKey().get(0) == clazz) {
+                entry.getValue().removeOwner(id);
+            }
+            if (entry.getKey().get(1) == clazz) {
+                entry.getValue().removeProperty(id);
+            }
+        }
+    }
+
+    /**
+     * Reload permission from storage, adding or removing the link.
+     */
+    public void refreshPermission(
+            Class<? extends BaseModel> ownerClass, long ownerId,
+            Class<? extends BaseModel> propertyClass, long propertyId) throws StorageException {
+        Links permissionLinks = links.get(List.of(ownerClass, propertyClass));
+        if (permissionLinks != null) {
+            if (storage.getPermissions(ownerClass, ownerId, propertyClass, propertyId).isEmpty()) {
+                permissionLinks.remove(ownerId, propertyId);
+            } else {
+                permissionLinks.add(ownerId, propertyId);
+            }
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ package org.traccar.session.cache;
 import org.traccar.broadcast.BroadcastInterface;
 import org.traccar.broadcast.BroadcastService;
 import org.traccar.config.Config;
+import org.traccar.config.Keys;
 import org.traccar.model.Attribute;
 import org.traccar.model.BaseModel;
 import org.traccar.model.Calendar;
@@ -32,16 +33,22 @@ import org.traccar.model.Position;
 import org.traccar.model.ScheduledModel;
 import org.traccar.model.Server;
 import org.traccar.model.User;
+import org.traccar.storage.PositionSnapshot;
 import org.traccar.storage.Storage;
 import org.traccar.storage.StorageException;
 import org.traccar.storage.query.Columns;
 import org.traccar.storage.query.Condition;
+import org.traccar.storage.query.Order;
 import org.traccar.storage.query.Request;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -50,36 +57,98 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
+/**
+ * Cache of devices and objects linked to them. Reads don't take any locks. Each device has an entry with an immutable
+ * snapshot of its links, which is replaced as a whole when the links change. Changes of a device are serialized by
+ * lock stripes, and data for invalidated devices is loaded from storage before taking the lock.
+ * <p>
+ * Shared objects and permission links are preloaded into an index, so attaching a device only loads the device and
+ * its latest position from storage. After a restart, the latest position is restored from the position snapshot
+ * instead, if it's still current.
+ */
 @Singleton
 public class CacheManager implements BroadcastInterface {
 
     private static final int GROUP_DEPTH_LIMIT = 3;
+    private static final int LOCK_STRIPES = 64;
     private static final Collection<Class<? extends BaseModel>> CLASSES = Arrays.asList(
             Attribute.class, Driver.class, Geofence.class, Maintenance.class, Notification.class);
 
+    private static final class DeviceData {
+
+        private final List<BaseModel> objects = new ArrayList<>();
+        private final Map<Class<? extends BaseModel>, Set<Long>> links = new HashMap<>();
+        private Position position;
+
+        private void addObject(BaseModel object) {
+            objects.add(object);
+        }
+
+        private void addLink(BaseModel object) {
+            links.computeIfAbsent(object.getClass(), k -> new LinkedHashSet<>()).add(object.getId());
+            objects.add(object);
+        }
+
+    }
+
+    private static final class DeviceEntry {
+
+        private volatile Map<Class<? extends BaseModel>, Set<Long>> links;
+        private volatile Position position;
+        private final PositionBuffer recentPositions;
+        private long generation;
+        private int references;
+
+        private DeviceEntry(DeviceData data, PositionBuffer recentPositions, long generation) {
+            links = data.links;
+            position = data.position;
+            this.recentPositions = recentPositions;
+            this.generation = generation;
+        }
+
+        private Set<CacheKey> getKeys(long deviceId) {
+            Set<CacheKey> keys = new HashSet<>();
+            keys.add(new CacheKey(Device.class, deviceId));
+            links.forEach((clazz, ids) -> ids.forEach(id -> keys.add(new CacheKey(clazz, id))));
+            return keys;
+        }
+
+    }
+
     private final Config config;
     private final Storage storage;
     private final BroadcastService broadcastService;
+    private final PositionSnapshot positionSnapshot;
+    private final int recentPositions;
+    private final CacheIndex index;
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final AtomicLong generation = new AtomicLong();
 
-    private final Map<CacheKey, CacheValue> deviceCache = new HashMap<>();
-    private final Map<Long, Integer> deviceReferences = new HashMap<>();
-    private final Map<Long, Map<Class<? extends BaseModel>, Set<Long>>> deviceLinks = new HashMap<>();
-    private final Map<Long, Position> devicePositions = new HashMap<>();
+    private final Map<CacheKey, CacheValue> deviceCache = new ConcurrentHashMap<>();
+    private final Map<Long, DeviceEntry> devices = new ConcurrentHashMap<>();
 
-    private Server server;
-    private final Map<Long, List<User>> notificationUsers = new HashMap<>();
+    private volatile Server server;
+    private volatile Map<Long, List<User>> notificationUsers = Map.of();
 
     @Inject
-    public CacheManager(Config config, Storage storage, BroadcastService broadcastService) throws StorageException {
+    public CacheManager(
+            Config config, Storage storage, BroadcastService broadcastService,
+            PositionSnapshot positionSnapshot) throws StorageException {
         this.config = config;
         this.storage = storage;
         this.broadcastService = broadcastService;
+        this.positionSnapshot = positionSnapshot;
+        recentPositions = config.getInteger(Keys.PROCESSING_RECENT_POSITIONS);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        index = new CacheIndex(storage, CLASSES);
+        index.load();
         invalidateServer();
         invalidateUsers();
         broadcastService.registerListener(this);
@@ -89,60 +158,61 @@ public class CacheManager implements BroadcastInterface {
         return config;
     }
 
+    private Object getLock(long deviceId) {
+        return locks[Math.floorMod(Long.hashCode(deviceId), locks.length)];
+    }
+
     public <T extends BaseModel> T getObject(Class<T> clazz, long id) {
-        try {
-            lock.readLock().lock();
-            var cacheValue = deviceCache.get(new CacheKey(clazz, id));
-            return cacheValue != null ? cacheValue.getValue() : null;
-        } finally {
-            lock.readLock().unlock();
-        }
+        var cacheValue = deviceCache.get(new CacheKey(clazz, id));
+        return cacheValue != null ? cacheValue.getValue() : null;
     }
 
     public <T extends BaseModel> List<T> getDeviceObjects(long deviceId, Class<T> clazz) {
-        try {
-            lock.readLock().lock();
-            return deviceLinks.get(deviceId).get(clazz).stream()
-                    .map(id -> {
-                        var cacheValue = deviceCache.get(new CacheKey(clazz, id));
-                        return cacheValue != null ? cacheValue.<T>getValue() : null;
-                    })
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList());
-        } finally {
-            lock.readLock().unlock();
-        }
+        return devices.get(deviceId).links.getOrDefault(clazz, Set.of()).stream()
+                .map(id -> {
+                    var cacheValue = deviceCache.get(new CacheKey(clazz, id));
+                    return cacheValue != null ? cacheValue.<T>getValue() : null;
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
     }
 
     public Position getPosition(long deviceId) {
-        try {
-            lock.readLock().lock();
-            return devicePositions.get(deviceId);
-        } finally {
-            lock.readLock().unlock();
+        DeviceEntry entry = devices.get(deviceId);
+        return entry != null ? entry.position : null;
+    }
+
+    /**
+     * Find the latest position with fix time not after the given time. Recent positions buffer is used if it covers
+     * the requested time, otherwise the position is loaded from storage.
+     */
+    public Position getPrecedingPosition(long deviceId, Date time) throws StorageException {
+        DeviceEntry entry = devices.get(deviceId);
+        PositionBuffer buffer = entry != null ? entry.recentPositions : null;
+        if (buffer != null) {
+            synchronized (buffer) {
+                if (buffer.covers(time)) {
+                    return buffer.getPreceding(time);
+                }
+            }
         }
+        return storage.getObject(Position.class, new Request(
+                new Columns.All(),
+                new Condition.And(
+                        new Condition.Equals("deviceId", deviceId),
+                        new Condition.Compare("fixTime", "<=", "time", time)),
+                new Order("fixTime", true, 1)));
     }
 
     public Server getServer() {
-        try {
-            lock.readLock().lock();
-            return server;
-        } finally {
-            lock.readLock().unlock();
-        }
+        return server;
     }
 
     public List<User> getNotificationUsers(long notificationId, long deviceId) {
-        try {
-            lock.readLock().lock();
-            var users = deviceLinks.get(deviceId).get(User.class).stream()
-                    .collect(Collectors.toUnmodifiableSet());
-            return notificationUsers.getOrDefault(notificationId, new LinkedList<>()).stream()
-                    .filter(user -> users.contains(user.getId()))
-                    .collect(Collectors.toUnmodifiableList());
-        } finally {
-            lock.readLock().unlock();
-        }
+        var users = devices.get(deviceId).links.getOrDefault(User.class, Set.of());
+        return notificationUsers.getOrDefault(notificationId, List.of()).stream()
+                .filter(user -> users.contains(user.getId()))
+                .collect(Collectors.toUnmodifiableList());
     }
 
     public Driver findDriverByUniqueId(long deviceId, String driverUniqueId) {
@@ -153,50 +223,83 @@ public class CacheManager implements BroadcastInterface {
     }
 
     public void addDevice(long deviceId) throws StorageException {
-        try {
-            lock.writeLock().lock();
-            Integer references = deviceReferences.get(deviceId);
-            if (references != null) {
-                references += 1;
-            } else {
-                unsafeAddDevice(deviceId);
-                references = 1;
+        synchronized (getLock(deviceId)) {
+            DeviceEntry entry = devices.get(deviceId);
+            if (entry != null) {
+                entry.references += 1;
+                return;
+            }
+        }
+
+        // invalidation only reloads devices that are already cached, so the generation is checked under the lock
+        // after the entry is registered and the device is loaded again if anything was invalidated in the meantime
+        while (true) {
+            long loadGeneration = generation.get();
+            DeviceData data = loadDevice(deviceId, true);
+            synchronized (getLock(deviceId)) {
+                DeviceEntry entry = devices.get(deviceId);
+                if (entry != null) {
+                    entry.references += 1;
+                    return;
+                }
+                if (data == null) {
+                    return;
+                }
+                addObjects(deviceId, data);
+                PositionBuffer buffer = recentPositions > 0 ? new PositionBuffer(recentPositions, data.position) : null;
+                entry = new DeviceEntry(data, buffer, loadGeneration);
+                entry.references = 1;
+                devices.put(deviceId, entry);
+                if (loadGeneration == generation.get()) {
+                    return;
+                }
+                devices.remove(deviceId);
+                releaseObjects(deviceId, entry.getKeys(deviceId));
             }
-            deviceReferences.put(deviceId, references);
-        } finally {
-            lock.writeLock().unlock();
         }
     }
 
     public void removeDevice(long deviceId) {
-        try {
-            lock.writeLock().lock();
-            Integer references = deviceReferences.get(deviceId);
-            if (references != null) {
-                references -= 1;
-                if (references <= 0) {
-                    unsafeRemoveDevice(deviceId);
-                    deviceReferences.remove(deviceId);
-                } else {
-                    deviceReferences.put(deviceId, references);
+        synchronized (getLock(deviceId)) {
+            DeviceEntry entry = devices.get(deviceId);
+            if (entry != null) {
+                entry.references -= 1;
+                if (entry.references <= 0) {
+                    devices.remove(deviceId);
+                    releaseObjects(deviceId, entry.getKeys(deviceId));
                 }
             }
-        } finally {
-            lock.writeLock().unlock();
         }
     }
 
     public void updatePosition(Position position) {
-        try {
-            lock.writeLock().lock();
-            if (deviceLinks.containsKey(position.getDeviceId())) {
-                devicePositions.put(position.getDeviceId(), position);
+        DeviceEntry entry = devices.get(position.getDeviceId());
+        if (entry != null) {
+            entry.position = position;
+        }
+    }
+
+    public void addRecentPosition(Position position) {
+        DeviceEntry entry = devices.get(position.getDeviceId());
+        PositionBuffer buffer = entry != null ? entry.recentPositions : null;
+        if (buffer != null) {
+            synchronized (buffer) {
+                buffer.add(position);
             }
-        } finally {
-            lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Write the latest positions of all cached devices to the position snapshot.
+     */
+    public void writeSnapshot() throws IOException {
+        List<Position> positions = devices.values().stream()
+                .map(entry -> entry.position)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        positionSnapshot.write(positions);
+    }
+
     @Override
     public void invalidateObject(boolean local, Class<? extends BaseModel> clazz, long id) {
         try {
@@ -217,6 +320,8 @@ public class CacheManager implements BroadcastInterface {
             broadcastService.invalidateObject(true, object.getClass(), object.getId());
         }
 
+        index.updateObject(object);
+
         boolean invalidate = false;
         var before = getObject(object.getClass(), object.getId());
         if (before == null) {
@@ -233,16 +338,15 @@ public class CacheManager implements BroadcastInterface {
         if (invalidate) {
             invalidate(object.getClass(), object.getId());
         } else {
-            try {
-                lock.writeLock().lock();
-                deviceCache.get(new CacheKey(object.getClass(), object.getId())).setValue(object);
-            } finally {
-                lock.writeLock().unlock();
+            var cacheValue = deviceCache.get(new CacheKey(object));
+            if (cacheValue != null) {
+                cacheValue.setValue(object);
             }
         }
     }
 
     public <T extends BaseModel> void invalidate(Class<T> clazz, long id) throws StorageException {
+        index.refreshObject(clazz, id);
         invalidate(new CacheKey(clazz, id));
     }
 
@@ -256,6 +360,13 @@ public class CacheManager implements BroadcastInterface {
         }
 
         try {
+            index.refreshPermission(clazz1, id1, clazz2, id2);
+            if (index.contains(clazz1) && index.getObject(clazz1, id1) == null) {
+                index.refreshObject(clazz1, id1);
+            }
+            if (index.contains(clazz2) && index.getObject(clazz2, id2) == null) {
+                index.refreshObject(clazz2, id2);
+            }
             invalidate(new CacheKey(clazz1, id1), new CacheKey(clazz2, id2));
         } catch (StorageException e) {
             throw new RuntimeException(e);
@@ -267,114 +378,127 @@ public class CacheManager implements BroadcastInterface {
     }
 
     private void invalidateUsers() throws StorageException {
-        notificationUsers.clear();
+        Map<Long, List<User>> result = new HashMap<>();
         Map<Long, User> users = new HashMap<>();
         storage.getObjects(User.class, new Request(new Columns.All()))
                 .forEach(user -> users.put(user.getId(), user));
         storage.getPermissions(User.class, Notification.class).forEach(permission -> {
             long notificationId = permission.getPropertyId();
             var user = users.get(permission.getOwnerId());
-            notificationUsers.computeIfAbsent(notificationId, k -> new LinkedList<>()).add(user);
+            result.computeIfAbsent(notificationId, k -> new LinkedList<>()).add(user);
         });
+        notificationUsers = result;
     }
 
-    private void addObject(long deviceId, BaseModel object) {
-        deviceCache.computeIfAbsent(new CacheKey(object), k -> new CacheValue(object)).retain(deviceId);
-    }
-
-    private void unsafeAddDevice(long deviceId) throws StorageException {
-        Map<Class<? extends BaseModel>, Set<Long>> links = new HashMap<>();
-
+    /**
+     * Load device from storage and link objects from the index. Doesn't modify the cache. Returns null if the device
+     * doesn't exist.
+     */
+    private DeviceData loadDevice(long deviceId, boolean loadPosition) throws StorageException {
         Device device = storage.getObject(Device.class, new Request(
                 new Columns.All(), new Condition.Equals("id", deviceId)));
-        if (device != null) {
-            addObject(deviceId, device);
-
-            int groupDepth = 0;
-            long groupId = device.getGroupId();
-            while (groupDepth < GROUP_DEPTH_LIMIT && groupId > 0) {
-                Group group = storage.getObject(Group.class, new Request(
-                        new Columns.All(), new Condition.Equals("id", groupId)));
-                links.computeIfAbsent(Group.class, k -> new LinkedHashSet<>()).add(group.getId());
-                addObject(deviceId, group);
-                groupId = group.getGroupId();
-                groupDepth += 1;
+        if (device == null) {
+            return null;
+        }
+
+        DeviceData data = new DeviceData();
+        data.addObject(device);
+
+        List<Long> groupIds = new ArrayList<>();
+        long groupId = device.getGroupId();
+        while (groupIds.size() < GROUP_DEPTH_LIMIT && groupId > 0) {
+            Group group = index.getObject(Group.class, groupId);
+            if (group == null) {
+                break;
             }
+            data.addLink(group);
+            groupIds.add(groupId);
+            groupId = group.getGroupId();
+        }
 
-            for (Class<? extends BaseModel> clazz : CLASSES) {
-                var objects = storage.getObjects(clazz, new Request(
-                        new Columns.All(), new Condition.Permission(Device.class, deviceId, clazz)));
-                links.put(clazz, objects.stream().map(BaseModel::getId).collect(Collectors.toSet()));
-                for (var object : objects) {
-                    addObject(deviceId, object);
+        for (Class<? extends BaseModel> clazz : CLASSES) {
+            data.links.put(clazz, new LinkedHashSet<>());
+            Set<Long> ids = new LinkedHashSet<>(index.getProperties(Device.class, deviceId, clazz));
+            for (long id : groupIds) {
+                ids.addAll(index.getProperties(Group.class, id, clazz));
+            }
+            for (long id : ids) {
+                BaseModel object = index.getObject(clazz, id);
+                if (object != null) {
+                    data.addLink(object);
                     if (object instanceof ScheduledModel) {
-                        var scheduled = (ScheduledModel) object;
-                        if (scheduled.getCalendarId() > 0) {
-                            var calendar = storage.getObject(Calendar.class, new Request(
-                                    new Columns.All(), new Condition.Equals("id", scheduled.getCalendarId())));
-                            links.computeIfAbsent(Notification.class, k -> new LinkedHashSet<>())
-                                    .add(calendar.getId());
-                            addObject(deviceId, calendar);
-                        }
+                        addCalendar(data, ((ScheduledModel) object).getCalendarId());
                     }
                 }
             }
+        }
 
-            var users = storage.getObjects(User.class, new Request(
-                    new Columns.All(), new Condition.Permission(User.class, Device.class, deviceId)));
-            links.put(User.class, users.stream().map(BaseModel::getId).collect(Collectors.toSet()));
-            for (var user : users) {
-                addObject(deviceId, user);
-                var notifications = storage.getObjects(Notification.class, new Request(
-                        new Columns.All(),
-                        new Condition.Permission(User.class, user.getId(), Notification.class))).stream()
-                        .filter(Notification::getAlways)
-                        .collect(Collectors.toList());
-                for (var notification : notifications) {
-                    links.computeIfAbsent(Notification.class, k -> new LinkedHashSet<>())
-                            .add(notification.getId());
-                    addObject(deviceId, notification);
-                    if (notification.getCalendarId() > 0) {
-                        var calendar = storage.getObject(Calendar.class, new Request(
-                                new Columns.All(), new Condition.Equals("id", notification.getCalendarId())));
-                        links.computeIfAbsent(Notification.class, k -> new LinkedHashSet<>())
-                                .add(calendar.getId());
-                        addObject(deviceId, calendar);
+        data.links.put(User.class, new LinkedHashSet<>());
+        Set<Long> userIds = new LinkedHashSet<>(index.getOwners(User.class, Device.class, deviceId));
+        for (long id : groupIds) {
+            userIds.addAll(index.getOwners(User.class, Group.class, id));
+        }
+        for (long userId : userIds) {
+            User user = index.getObject(User.class, userId);
+            if (user != null) {
+                data.addLink(user);
+                for (long notificationId : index.getProperties(User.class, userId, Notification.class)) {
+                    Notification notification = index.getObject(Notification.class, notificationId);
+                    if (notification != null && notification.getAlways()) {
+                        data.addLink(notification);
+                        addCalendar(data, notification.getCalendarId());
                     }
                 }
             }
+        }
 
-            deviceLinks.put(deviceId, links);
+        data.links.replaceAll((clazz, ids) -> Collections.unmodifiableSet(ids));
 
-            if (device.getPositionId() > 0) {
-                devicePositions.put(deviceId, storage.getObject(Position.class, new Request(
-                        new Columns.All(), new Condition.Equals("id", device.getPositionId()))));
+        if (loadPosition && device.getPositionId() > 0) {
+            data.position = positionSnapshot.getPosition(deviceId, device.getPositionId());
+        }
+        if (loadPosition && device.getPositionId() > 0 && data.position == null) {
+            data.position = storage.getObject(Position.class, new Request(
+                    new Columns.All(), new Condition.Equals("id", device.getPositionId())));
+        }
+
+        return data;
+    }
+
+    private void addCalendar(DeviceData data, long calendarId) {
+        if (calendarId > 0) {
+            Calendar calendar = index.getObject(Calendar.class, calendarId);
+            if (calendar != null) {
+                data.addLink(calendar);
             }
         }
     }
 
-    private void unsafeRemoveDevice(long deviceId) {
-        deviceCache.remove(new CacheKey(Device.class, deviceId));
-        deviceLinks.remove(deviceId).forEach((clazz, ids) -> ids.forEach(id -> {
-            var key = new CacheKey(clazz, id);
-            deviceCache.computeIfPresent(key, (k, value) -> {
-                value.release(deviceId);
-                return value.getReferences().size() > 0 ? value : null;
+    private void addObjects(long deviceId, DeviceData data) {
+        for (BaseModel object : data.objects) {
+            deviceCache.compute(new CacheKey(object), (key, value) -> {
+                if (value == null) {
+                    value = new CacheValue(object);
+                } else {
+                    value.setValue(object);
+                }
+                value.retain(deviceId);
+                return value;
             });
-        }));
-        devicePositions.remove(deviceId);
+        }
     }
 
-    private void invalidate(CacheKey... keys) throws StorageException {
-        try {
-            lock.writeLock().lock();
-            unsafeInvalidate(keys);
-        } finally {
-            lock.writeLock().unlock();
+    private void releaseObjects(long deviceId, Collection<CacheKey> keys) {
+        for (CacheKey key : keys) {
+            deviceCache.computeIfPresent(key, (k, value) -> {
+                value.release(deviceId);
+                return value.getReferences().isEmpty() ? null : value;
+            });
         }
     }
 
-    private void unsafeInvalidate(CacheKey[] keys) throws StorageException {
+    private void invalidate(CacheKey... keys) throws StorageException {
+        long invalidateGeneration = generation.incrementAndGet();
         boolean invalidateServer = false;
         boolean invalidateUsers = false;
         Set<Long> linkedDevices = new HashSet<>();
@@ -385,15 +509,30 @@ public class CacheManager implements BroadcastInterface {
                 if (key.classIs(User.class) || key.classIs(Notification.class)) {
                     invalidateUsers = true;
                 }
-                deviceCache.computeIfPresent(key, (k, value) -> {
-                    linkedDevices.addAll(value.getReferences());
-                    return value;
-                });
+                var cacheValue = deviceCache.get(key);
+                if (cacheValue != null) {
+                    linkedDevices.addAll(cacheValue.getReferences());
+                }
             }
         }
         for (long deviceId : linkedDevices) {
-            unsafeRemoveDevice(deviceId);
-            unsafeAddDevice(deviceId);
+            DeviceData data = loadDevice(deviceId, false);
+            synchronized (getLock(deviceId)) {
+                DeviceEntry entry = devices.get(deviceId);
+                if (entry == null || entry.generation >= invalidateGeneration) {
+                    continue;
+                }
+                Set<CacheKey> oldKeys = entry.getKeys(deviceId);
+                if (data != null) {
+                    addObjects(deviceId, data);
+                    entry.links = data.links;
+                    entry.generation = invalidateGeneration;
+                    oldKeys.removeAll(entry.getKeys(deviceId));
+                } else {
+                    entry.links = Map.of();
+                }
+                releaseObjects(deviceId, oldKeys);
+            }
         }
         if (invalidateServer) {
             invalidateServer();
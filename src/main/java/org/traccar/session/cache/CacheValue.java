@@ -17,13 +17,13 @@ package org.traccar.session.cache;
 
 import org.traccar.model.BaseModel;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 class CacheValue {
 
-    private BaseModel value;
-    private final Set<Long> references = new HashSet<>();
+    private volatile BaseModel value;
+    private final Set<Long> references = ConcurrentHashMap.newKeySet();
 
     CacheValue(BaseModel value) {
         this.value = value;
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.session.cache;
+
+import org.traccar.model.Position;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Bounded list of recent device positions sorted by fix time. All stored positions with fix time not earlier than the
+ * coverage time are guaranteed to be in the buffer, so lookups within that range don't need storage.
+ */
+class PositionBuffer {
+
+    private final int capacity;
+    private final List<Position> positions;
+    private long coverage;
+
+    PositionBuffer(int capacity, Position latest) {
+        this.capacity = capacity;
+        positions = new ArrayList<>(capacity + 1);
+        if (latest != null) {
+            positions.add(latest);
+            coverage = latest.getFixTime().getTime();
+        }
+    }
+
+    public void add(Position position) {
+        long time = position.getFixTime().getTime();
+        int index = positions.size();
+        while (index > 0 && positions.get(index - 1).getFixTime().getTime() > time) {
+            index -= 1;
+        }
+        positions.add(index, position);
+        if (positions.size() > capacity) {
+            positions.remove(0);
+            coverage = Math.max(coverage, positions.get(0).getFixTime().getTime());
+        }
+    }
+
+    public boolean covers(Date time) {
+        return time.getTime() >= coverage;
+    }
+
+    public Position getPreceding(Date time) {
+        long key = time.getTime();
+        int low = 0;
+        int high = positions.size() - 1;
+        Position result = null;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Position position = positions.get(middle);
+            if (position.getFixTime().getTime() <= key) {
+                result = position;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.traccar.model.Device;
+import org.traccar.model.Event;
+import org.traccar.model.Position;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact encoding of the attributes column. Known keys are replaced with their index in a fixed dictionary and values
+ * are stored with a type tag, using variable length integers where possible. The result is stored as Base64 text, so
+ * the column type stays the same. Values starting with a curly bracket are decoded as JSON, so existing rows can be
+ * read without migration.
+ */
+public final class AttributesCodec {
+
+    private static final int VERSION = 1;
+
+    /**
+     * Dictionary indexes are persisted, so new keys must only be added to the end of the list.
+     */
+    private static final List<String> DICTIONARY = List.of(
+            Position.KEY_ORIGINAL, Position.KEY_INDEX, Position.KEY_HDOP, Position.KEY_VDOP, Position.KEY_PDOP,
+            Position.KEY_SATELLITES, Position.KEY_SATELLITES_VISIBLE, Position.KEY_RSSI, Position.KEY_GPS,
+            Position.KEY_ROAMING, Position.KEY_EVENT, Position.KEY_ALARM, Position.KEY_STATUS,
+            Position.KEY_ODOMETER, Position.KEY_ODOMETER_SERVICE, Position.KEY_ODOMETER_TRIP, Position.KEY_HOURS,
+            Position.KEY_STEPS, Position.KEY_HEART_RATE, Position.KEY_INPUT, Position.KEY_OUTPUT,
+            Position.KEY_IMAGE, Position.KEY_VIDEO, Position.KEY_AUDIO, Position.KEY_POWER, Position.KEY_BATTERY,
+            Position.KEY_BATTERY_LEVEL, Position.KEY_FUEL_LEVEL, Position.KEY_FUEL_USED,
+            Position.KEY_FUEL_CONSUMPTION, Position.KEY_VERSION_FW, Position.KEY_VERSION_HW, Position.KEY_TYPE,
+            Position.KEY_IGNITION, Position.KEY_FLAGS, Position.KEY_ANTENNA, Position.KEY_CHARGE, Position.KEY_IP,
+            Position.KEY_ARCHIVE, Position.KEY_DISTANCE, Position.KEY_TOTAL_DISTANCE, Position.KEY_RPM,
+            Position.KEY_VIN, Position.KEY_APPROXIMATE, Position.KEY_THROTTLE, Position.KEY_MOTION,
+            Position.KEY_ARMED, Position.KEY_GEOFENCE, Position.KEY_ACCELERATION, Position.KEY_DEVICE_TEMP,
+            Position.KEY_COOLANT_TEMP, Position.KEY_ENGINE_LOAD, Position.KEY_OPERATOR, Position.KEY_COMMAND,
+            Position.KEY_BLOCKED, Position.KEY_DOOR, Position.KEY_AXLE_WEIGHT, Position.KEY_G_SENSOR,
+            Position.KEY_ICCID, Position.KEY_PHONE, Position.KEY_SPEED_LIMIT, Position.KEY_DTCS,
+            Position.KEY_OBD_SPEED, Position.KEY_OBD_ODOMETER, Position.KEY_RESULT, Position.KEY_DRIVER_UNIQUE_ID);
+
+    private static final Map<String, Integer> DICTIONARY_INDEXES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.size(); i++) {
+            DICTIONARY_INDEXES.put(DICTIONARY.get(i), i + 1);
+        }
+    }
+
+    private static final double[] SCALES = {1, 10, 100, 1000, 10000, 100000, 1000000};
+    private static final double MAX_EXACT = 1L << 53;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_FALSE = 1;
+    private static final int TYPE_TRUE = 2;
+    private static final int TYPE_INTEGER = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_DOUBLE = 5;
+    private static final int TYPE_DECIMAL = 6;
+    private static final int TYPE_STRING = 7;
+    private static final int TYPE_JSON = 8;
+
+    private AttributesCodec() {
+    }
+
+    private static final Set<Class<?>> CLASSES = Set.of(Position.class, Device.class, Event.class);
+
+    public static boolean isSupported(Class<?> clazz) {
+        return CLASSES.contains(clazz);
+    }
+
+    public static boolean isJson(String value) {
+        return value.startsWith("{") || value.equals("null");
+    }
+
+    public static String encode(ObjectMapper objectMapper, Map<String, Object> attributes) throws IOException {
+        return Base64.getEncoder().encodeToString(encodeBinary(objectMapper, attributes));
+    }
+
+    public static byte[] encodeBinary(ObjectMapper objectMapper, Map<String, Object> attributes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(VERSION);
+        writeVarInt(output, attributes.size());
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            Integer index = DICTIONARY_INDEXES.get(entry.getKey());
+            if (index != null) {
+                writeVarInt(output, index);
+            } else {
+                writeVarInt(output, 0);
+                writeString(output, entry.getKey());
+            }
+            writeValue(output, objectMapper, entry.getValue());
+        }
+        return output.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> decode(ObjectMapper objectMapper, String value) throws IOException {
+        if (isJson(value)) {
+            return objectMapper.readValue(value, LinkedHashMap.class);
+        }
+        try {
+            return decodeBinary(objectMapper, ByteBuffer.wrap(Base64.getDecoder().decode(value)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid attributes value", e);
+        }
+    }
+
+    public static Map<String, Object> decodeBinary(ObjectMapper objectMapper, ByteBuffer input) throws IOException {
+        try {
+            int version = input.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported attributes version " + version);
+            }
+            int count = (int) readVarInt(input);
+            Map<String, Object> attributes = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                int index = (int) readVarInt(input);
+                String key = index > 0 ? DICTIONARY.get(index - 1) : readString(input);
+                attributes.put(key, readValue(input, objectMapper));
+            }
+            return attributes;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new IOException("Invalid attributes value", e);
+        }
+    }
+
+    static void writeValue(
+            ByteArrayOutputStream output, ObjectMapper objectMapper, Object value) throws IOException {
+        if (value == null) {
+            output.write(TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            output.write((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            output.write(TYPE_INTEGER);
+            writeVarInt(output, zigZag(((Number) value).longValue()));
+        } else if (value instanceof Long) {
+            output.write(TYPE_LONG);
+            writeVarInt(output, zigZag((Long) value));
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            int scale = findScale(number);
+            if (scale >= 0) {
+                output.write(TYPE_DECIMAL);
+                output.write(scale);
+                writeVarInt(output, zigZag(Math.round(number * SCALES[scale])));
+            } else {
+                output.write(TYPE_DOUBLE);
+                long bits = Double.doubleToRawLongBits(number);
+                for (int i = 56; i >= 0; i -= 8) {
+                    output.write((int) (bits >> i));
+                }
+            }
+        } else if (value instanceof String) {
+            output.write(TYPE_STRING);
+            writeString(output, (String) value);
+        } else {
+            output.write(TYPE_JSON);
+            writeString(output, objectMapper.writeValueAsString(value));
+        }
+    }
+
+    static Object readValue(ByteBuffer input, ObjectMapper objectMapper) throws IOException {
+        int type = input.get();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_FALSE:
+                return false;
+            case TYPE_TRUE:
+                return true;
+            case TYPE_INTEGER:
+                return (int) unZigZag(readVarInt(input));
+            case TYPE_LONG:
+                return unZigZag(readVarInt(input));
+            case TYPE_DOUBLE:
+                return input.getDouble();
+            case TYPE_DECIMAL:
+                int scale = input.get();
+                return unZigZag(readVarInt(input)) / SCALES[scale];
+            case TYPE_STRING:
+                return readString(input);
+            case TYPE_JSON:
+                return objectMapper.readValue(readString(input), Object.class);
+            default:
+                throw new IOException("Unknown attribute type " + type);
+        }
+    }
+
+    /**
+     * Returns the smallest number of decimal digits that represents the value exactly or -1 if there is none.
+     */
+    private static int findScale(double value) {
+        if (Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(-0.0)) {
+            return -1;
+        }
+        for (int scale = 0; scale < SCALES.length; scale++) {
+            double scaled = value * SCALES[scale];
+            if (Math.abs(scaled) < MAX_EXACT && Math.round(scaled) / SCALES[scale] == value) {
+                return scale;
+            }
+        }
+        return -1;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarInt(ByteArrayOutputStream output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    static long readVarInt(ByteBuffer input) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Invalid variable length integer");
+    }
+
+    static void writeString(ByteArrayOutputStream output, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(output, bytes.length);
+        output.writeBytes(bytes);
+    }
+
+    static String readString(ByteBuffer input) throws IOException {
+        byte[] bytes = new byte[(int) readVarInt(input)];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
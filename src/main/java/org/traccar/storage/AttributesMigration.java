@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.model.BaseModel;
+import org.traccar.model.Device;
+import org.traccar.model.Event;
+import org.traccar.model.Position;
+import org.traccar.storage.query.Columns;
+import org.traccar.storage.query.Condition;
+import org.traccar.storage.query.Order;
+import org.traccar.storage.query.Request;
+
+import javax.inject.Inject;
+import java.util.List;
+
+/**
+ * Rewrites attributes of all positions, events and devices in the configured format. Values are read in either
+ * format, so the migration can be interrupted and run again, and it can also convert binary values back to JSON.
+ */
+public class AttributesMigration {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AttributesMigration.class);
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int LOG_INTERVAL = 100;
+
+    private final Storage storage;
+
+    @Inject
+    public AttributesMigration(Storage storage) {
+        this.storage = storage;
+    }
+
+    public void run() throws StorageException {
+        migrate(Device.class);
+        migrate(Event.class);
+        migrate(Position.class);
+    }
+
+    private <T extends BaseModel> void migrate(Class<T> clazz) throws StorageException {
+        long lastId = 0;
+        long count = 0;
+        int batches = 0;
+        while (true) {
+            List<T> items = storage.getObjects(clazz, new Request(
+                    new Columns.Include("id", "attributes"),
+                    new Condition.Compare("id", ">", "id", lastId),
+                    new Order("id", false, BATCH_SIZE)));
+            if (items.isEmpty()) {
+                break;
+            }
+            storage.updateObjects(items, new Columns.Include("attributes"));
+            lastId = items.get(items.size() - 1).getId();
+            count += items.size();
+            if (++batches % LOG_INTERVAL == 0) {
+                LOGGER.info("Migrated attributes of {} {} rows, last id {}", count, clazz.getSimpleName(), lastId);
+            }
+        }
+        LOGGER.info("Migrated attributes of {} {} rows", count, clazz.getSimpleName());
+    }
+
+}
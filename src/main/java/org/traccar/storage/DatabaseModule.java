@@ -19,6 +19,7 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
 import liquibase.Contexts;
 import liquibase.Liquibase;
 import liquibase.database.Database;
@@ -28,6 +29,7 @@ import liquibase.resource.FileSystemResourceAccessor;
 import liquibase.resource.ResourceAccessor;
 import org.traccar.config.Config;
 import org.traccar.config.Keys;
+import org.traccar.database.StoragePressure;
 
 import javax.inject.Singleton;
 import javax.sql.DataSource;
@@ -35,13 +37,16 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
 
 public class DatabaseModule extends AbstractModule {
 
     @Singleton
     @Provides
-    public static DataSource provideDataSource(
-            Config config) throws ReflectiveOperationException, IOException, LiquibaseException {
+    public static DataSource provideDataSource(Config config, StoragePressure storagePressure, PoolMetrics poolMetrics)
+            throws ReflectiveOperationException, IOException, LiquibaseException, SQLException {
 
         String driverFile = config.getString(Keys.DATABASE_DRIVER_FILE);
         if (driverFile != null) {
@@ -63,20 +68,34 @@ public class DatabaseModule extends AbstractModule {
             Class.forName(driver);
         }
 
-        HikariConfig hikariConfig = new HikariConfig();
-        hikariConfig.setDriverClassName(driver);
-        hikariConfig.setJdbcUrl(config.getString(Keys.DATABASE_URL));
-        hikariConfig.setUsername(config.getString(Keys.DATABASE_USER));
-        hikariConfig.setPassword(config.getString(Keys.DATABASE_PASSWORD));
-        hikariConfig.setConnectionInitSql(config.getString(Keys.DATABASE_CHECK_CONNECTION));
-        hikariConfig.setIdleTimeout(600000);
-
-        int maxPoolSize = config.getInteger(Keys.DATABASE_MAX_POOL_SIZE);
-        if (maxPoolSize != 0) {
-            hikariConfig.setMaximumPoolSize(maxPoolSize);
+        Map<StorageWorkload, Integer> poolSizes = new EnumMap<>(StorageWorkload.class);
+        poolSizes.put(StorageWorkload.INGEST, config.getInteger(Keys.DATABASE_INGEST_POOL_SIZE));
+        poolSizes.put(StorageWorkload.API, config.getInteger(Keys.DATABASE_API_POOL_SIZE));
+        poolSizes.put(StorageWorkload.REPORTS, config.getInteger(Keys.DATABASE_REPORTS_POOL_SIZE));
+        poolSizes.put(StorageWorkload.BACKGROUND, config.getInteger(Keys.DATABASE_BACKGROUND_POOL_SIZE));
+        String replicaUrl = config.getString(Keys.DATABASE_REPLICA_URL);
+
+        boolean ingestPool = poolSizes.get(StorageWorkload.INGEST) > 0;
+        MetricsTrackerFactory pressureListener = storagePressure.isEnabled() ? storagePressure : null;
+
+        DataSource defaultDataSource = createPool(
+                config, "default", config.getString(Keys.DATABASE_URL), config.getInteger(Keys.DATABASE_MAX_POOL_SIZE),
+                false, poolMetrics.createFactory(ingestPool ? null : pressureListener));
+
+        Map<StorageWorkload, DataSource> dataSources = new EnumMap<>(StorageWorkload.class);
+        for (var entry : poolSizes.entrySet()) {
+            StorageWorkload workload = entry.getKey();
+            boolean replica = workload == StorageWorkload.REPORTS && replicaUrl != null;
+            if (entry.getValue() > 0 || replica) {
+                dataSources.put(workload, createPool(
+                        config, workload.getName(), replica ? replicaUrl : config.getString(Keys.DATABASE_URL),
+                        entry.getValue(), replica,
+                        poolMetrics.createFactory(workload == StorageWorkload.INGEST ? pressureListener : null)));
+            }
         }
 
-        DataSource dataSource = new HikariDataSource(hikariConfig);
+        DataSource dataSource = dataSources.isEmpty()
+                ? defaultDataSource : new RoutingDataSource(defaultDataSource, dataSources);
 
         if (config.hasKey(Keys.DATABASE_CHANGELOG)) {
 
@@ -97,7 +116,33 @@ public class DatabaseModule extends AbstractModule {
             }
         }
 
+        PartitionManager partitionManager = new PartitionManager(config, defaultDataSource);
+        if (partitionManager.isEnabled()) {
+            partitionManager.update();
+        }
+
         return dataSource;
     }
 
+    private static DataSource createPool(
+            Config config, String name, String url, int maxPoolSize, boolean readOnly,
+            MetricsTrackerFactory metricsTrackerFactory) {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName(name);
+        hikariConfig.setDriverClassName(config.getString(Keys.DATABASE_DRIVER));
+        hikariConfig.setJdbcUrl(url);
+        hikariConfig.setUsername(config.getString(Keys.DATABASE_USER));
+        hikariConfig.setPassword(config.getString(Keys.DATABASE_PASSWORD));
+        hikariConfig.setConnectionInitSql(config.getString(Keys.DATABASE_CHECK_CONNECTION));
+        hikariConfig.setIdleTimeout(600000);
+        hikariConfig.setReadOnly(readOnly);
+        hikariConfig.setMetricsTrackerFactory(metricsTrackerFactory);
+
+        if (maxPoolSize != 0) {
+            hikariConfig.setMaximumPoolSize(maxPoolSize);
+        }
+
+        return new HikariDataSource(hikariConfig);
+    }
+
 }
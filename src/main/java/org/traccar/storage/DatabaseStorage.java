@@ -17,59 +17,87 @@ package org.traccar.storage;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.traccar.config.Config;
+import org.traccar.config.Keys;
 import org.traccar.model.BaseModel;
 import org.traccar.model.Device;
+import org.traccar.model.Event;
 import org.traccar.model.Group;
 import org.traccar.model.GroupedModel;
 import org.traccar.model.Permission;
+import org.traccar.model.Position;
 import org.traccar.storage.query.Columns;
 import org.traccar.storage.query.Condition;
+import org.traccar.storage.query.Limit;
 import org.traccar.storage.query.Order;
 import org.traccar.storage.query.Request;
 
 import javax.inject.Inject;
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class DatabaseStorage extends Storage {
 
+    private static final int FETCH_SIZE = 1000;
+
+    private static final int STATEMENT_CACHE_SIZE = 1000;
+
     private final Config config;
     private final DataSource dataSource;
     private final ObjectMapper objectMapper;
     private final String databaseType;
+    private final boolean removeDeviceData;
+    private final PostgresCopyWriter copyWriter;
+    private final PositionArchive positionArchive;
+    private final QueryMetrics queryMetrics;
+
+    // keys include values such as the number of IN items and limits, so the number of statements is bounded
+    private final Map<List<Object>, String> statements = new ConcurrentHashMap<>();
 
     @Inject
-    public DatabaseStorage(Config config, DataSource dataSource, ObjectMapper objectMapper) {
+    public DatabaseStorage(
+            Config config, DataSource dataSource, ObjectMapper objectMapper,
+            PositionArchive positionArchive, QueryMetrics queryMetrics) {
         this.config = config;
         this.dataSource = dataSource;
         this.objectMapper = objectMapper;
+        this.positionArchive = positionArchive;
+        this.queryMetrics = queryMetrics;
 
         try {
             databaseType = dataSource.getConnection().getMetaData().getDatabaseProductName();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+
+        // partitioned MySQL tables have no device foreign keys, so there is no cascade on device removal
+        removeDeviceData = config.getBoolean(Keys.DATABASE_PARTITION_ENABLE)
+                && (databaseType.equals("MySQL") || databaseType.equals("MariaDB"));
+
+        if (config.getBoolean(Keys.DATABASE_BATCH_COPY) && databaseType.equals("PostgreSQL")) {
+            copyWriter = new PostgresCopyWriter(
+                    dataSource, objectMapper, config.getBoolean(Keys.DATABASE_BINARY_ATTRIBUTES));
+        } else {
+            copyWriter = null;
+        }
     }
 
     @Override
     public <T> List<T> getObjects(Class<T> clazz, Request request) throws StorageException {
-        StringBuilder query = new StringBuilder("SELECT ");
-        if (request.getColumns() instanceof Columns.All) {
-            query.append('*');
-        } else {
-            query.append(formatColumns(request.getColumns().getColumns(clazz, "set"), c -> c));
-        }
-        query.append(" FROM ").append(getStorageName(clazz));
-        query.append(formatCondition(request.getCondition()));
-        query.append(formatOrder(request.getOrder()));
         try {
-            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, query.toString());
+            QueryBuilder builder = QueryBuilder.create(
+                    config, dataSource, objectMapper, queryMetrics, formatSelect(clazz, request));
             for (Map.Entry<String, Object> variable : getConditionVariables(request.getCondition()).entrySet()) {
                 builder.setValue(variable.getKey(), variable.getValue());
             }
@@ -79,18 +107,47 @@ public class DatabaseStorage extends Storage {
         }
     }
 
+    @Override
+    public <T> void streamObjects(Class<T> clazz, Request request, Consumer<T> consumer) throws StorageException {
+        // the connection is held while the consumer runs, so it's always taken from the reports pool
+        StorageWorkload workload = StorageWorkload.current();
+        StorageWorkload.set(StorageWorkload.REPORTS);
+        try {
+            QueryBuilder builder = QueryBuilder.create(
+                    config, dataSource, objectMapper, queryMetrics, formatSelect(clazz, request));
+            StorageWorkload.set(workload);
+            for (Map.Entry<String, Object> variable : getConditionVariables(request.getCondition()).entrySet()) {
+                builder.setValue(variable.getKey(), variable.getValue());
+            }
+            // MySQL driver only streams rows with the special fetch size value
+            builder.executeQuery(clazz, consumer, databaseType.equals("MySQL") ? Integer.MIN_VALUE : FETCH_SIZE);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            StorageWorkload.set(workload);
+        }
+    }
+
+    @Override
+    public List<Position> getArchivedPositions(long deviceId, Date from, Date to) throws StorageException {
+        try {
+            return positionArchive.getPositions(deviceId, from, to);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public Iterator<Position> iterateArchivedPositions(long deviceId, Date from, Date to) {
+        return positionArchive.iteratePositions(deviceId, from, to);
+    }
+
     @Override
     public <T> long addObject(T entity, Request request) throws StorageException {
         List<String> columns = request.getColumns().getColumns(entity.getClass(), "get");
-        StringBuilder query = new StringBuilder("INSERT INTO ");
-        query.append(getStorageName(entity.getClass()));
-        query.append("(");
-        query.append(formatColumns(columns, c -> c));
-        query.append(") VALUES (");
-        query.append(formatColumns(columns, c -> ':' + c));
-        query.append(")");
+        String query = formatInsert(entity.getClass(), columns);
         try {
-            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, query.toString(), true);
+            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, queryMetrics, query, true);
             builder.setObject(entity, columns);
             return builder.executeUpdate();
         } catch (SQLException e) {
@@ -98,16 +155,39 @@ public class DatabaseStorage extends Storage {
         }
     }
 
+    @Override
+    public <T> List<Long> addObjects(List<T> entities, Request request) throws StorageException {
+        if (entities.isEmpty()) {
+            return new LinkedList<>();
+        }
+        Class<?> clazz = entities.get(0).getClass();
+        List<String> columns = request.getColumns().getColumns(clazz, "get");
+        if (copyWriter != null && clazz.equals(Position.class)) {
+            try {
+                return copyWriter.addObjects(getStorageName(clazz), entities, columns);
+            } catch (SQLException | IOException | IllegalArgumentException e) {
+                throw new StorageException(e);
+            }
+        }
+        String query = formatInsert(clazz, columns);
+        try {
+            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, queryMetrics, query, true);
+            for (T entity : entities) {
+                builder.setObject(entity, columns);
+                builder.addBatch();
+            }
+            return builder.executeBatch();
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
     @Override
     public <T> void updateObject(T entity, Request request) throws StorageException {
         List<String> columns = request.getColumns().getColumns(entity.getClass(), "get");
-        StringBuilder query = new StringBuilder("UPDATE ");
-        query.append(getStorageName(entity.getClass()));
-        query.append(" SET ");
-        query.append(formatColumns(columns, c -> c + " = :" + c));
-        query.append(formatCondition(request.getCondition()));
+        String query = formatUpdate(entity.getClass(), columns, formatCondition(request.getCondition()));
         try {
-            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, query.toString());
+            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, queryMetrics, query);
             builder.setObject(entity, columns);
             for (Map.Entry<String, Object> variable : getConditionVariables(request.getCondition()).entrySet()) {
                 builder.setValue(variable.getKey(), variable.getValue());
@@ -118,13 +198,41 @@ public class DatabaseStorage extends Storage {
         }
     }
 
+    @Override
+    public <T extends BaseModel> void updateObjects(List<T> entities, Columns columns) throws StorageException {
+        if (entities.isEmpty()) {
+            return;
+        }
+        List<String> columnList = columns.getColumns(entities.get(0).getClass(), "get");
+        String query = formatUpdate(entities.get(0).getClass(), columnList, " WHERE id = :id");
+        try {
+            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, queryMetrics, query);
+            for (T entity : entities) {
+                builder.setObject(entity, columnList);
+                builder.setLong("id", entity.getId());
+                builder.addBatch();
+            }
+            builder.executeBatch();
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
     @Override
     public void removeObject(Class<?> clazz, Request request) throws StorageException {
+        if (clazz == Device.class && removeDeviceData) {
+            var devices = getObjects(Device.class, new Request(new Columns.Include("id"), request.getCondition()));
+            for (Device device : devices) {
+                removeObject(Position.class, new Request(new Condition.Equals("deviceId", device.getId())));
+                removeObject(Event.class, new Request(new Condition.Equals("deviceId", device.getId())));
+            }
+        }
         StringBuilder query = new StringBuilder("DELETE FROM ");
         query.append(getStorageName(clazz));
         query.append(formatCondition(request.getCondition()));
         try {
-            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, query.toString());
+            QueryBuilder builder = QueryBuilder.create(
+                    config, dataSource, objectMapper, queryMetrics, query.toString());
             for (Map.Entry<String, Object> variable : getConditionVariables(request.getCondition()).entrySet()) {
                 builder.setValue(variable.getKey(), variable.getValue());
             }
@@ -150,7 +258,8 @@ public class DatabaseStorage extends Storage {
         Condition combinedCondition = Condition.merge(conditions);
         query.append(formatCondition(combinedCondition));
         try {
-            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, query.toString());
+            QueryBuilder builder = QueryBuilder.create(
+                    config, dataSource, objectMapper, queryMetrics, query.toString());
             for (Map.Entry<String, Object> variable : getConditionVariables(combinedCondition).entrySet()) {
                 builder.setValue(variable.getKey(), variable.getValue());
             }
@@ -168,7 +277,8 @@ public class DatabaseStorage extends Storage {
         query.append(permission.get().keySet().stream().map(key -> ':' + key).collect(Collectors.joining(", ")));
         query.append(")");
         try {
-            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, query.toString(), true);
+            QueryBuilder builder = QueryBuilder.create(
+                    config, dataSource, objectMapper, queryMetrics, query.toString(), true);
             for (var entry : permission.get().entrySet()) {
                 builder.setLong(entry.getKey(), entry.getValue());
             }
@@ -186,7 +296,8 @@ public class DatabaseStorage extends Storage {
         query.append(permission
                 .get().keySet().stream().map(key -> key + " = :" + key).collect(Collectors.joining(" AND ")));
         try {
-            QueryBuilder builder = QueryBuilder.create(config, dataSource, objectMapper, query.toString(), true);
+            QueryBuilder builder = QueryBuilder.create(
+                    config, dataSource, objectMapper, queryMetrics, query.toString(), true);
             for (var entry : permission.get().entrySet()) {
                 builder.setLong(entry.getKey(), entry.getValue());
             }
@@ -219,6 +330,15 @@ public class DatabaseStorage extends Storage {
             var condition = (Condition.Binary) genericCondition;
             results.putAll(getConditionVariables(condition.getFirst()));
             results.putAll(getConditionVariables(condition.getSecond()));
+        } else if (genericCondition instanceof Condition.In) {
+            var condition = (Condition.In) genericCondition;
+            for (int i = 0; i < condition.getValues().size(); i++) {
+                results.put(condition.getVariable() + i, condition.getValues().get(i));
+            }
+        } else if (genericCondition instanceof Condition.Keyset) {
+            var condition = (Condition.Keyset) genericCondition;
+            results.put("keysetValue", condition.getValue());
+            results.put("keysetId", condition.getId());
         } else if (genericCondition instanceof Condition.Permission) {
             var condition = (Condition.Permission) genericCondition;
             if (condition.getOwnerId() > 0) {
@@ -235,6 +355,94 @@ public class DatabaseStorage extends Storage {
         return results;
     }
 
+    private String formatSelect(Class<?> clazz, Request request) throws StorageException {
+        List<String> columns = request.getColumns() instanceof Columns.All
+                ? null : request.getColumns().getColumns(clazz, "set");
+        Order order = request.getOrder();
+        List<Object> key = Arrays.asList(
+                "SELECT", clazz, columns, getConditionKey(request.getCondition()),
+                order != null ? Arrays.asList(
+                        order.getColumn(), order.getSecondaryColumn(), order.getDescending(), order.getLimit()) : null,
+                request.getLimit() != null ? request.getLimit().getValue() : 0);
+        String query = statements.get(key);
+        if (query == null) {
+            StringBuilder result = new StringBuilder("SELECT ");
+            if (columns == null) {
+                result.append('*');
+            } else {
+                result.append(formatColumns(columns, c -> c));
+            }
+            result.append(" FROM ").append(getStorageName(clazz));
+            result.append(formatCondition(request.getCondition()));
+            result.append(formatOrder(order, request.getLimit()));
+            query = result.toString();
+            cacheStatement(key, query);
+        }
+        return query;
+    }
+
+    /**
+     * Returns the parts of the condition that affect the generated SQL, without the values.
+     */
+    private static Object getConditionKey(Condition genericCondition) {
+        if (genericCondition instanceof Condition.Compare) {
+            var condition = (Condition.Compare) genericCondition;
+            return List.of("Compare", condition.getColumn(), condition.getOperator(), condition.getVariable());
+        } else if (genericCondition instanceof Condition.Between) {
+            var condition = (Condition.Between) genericCondition;
+            return List.of(
+                    "Between", condition.getColumn(), condition.getFromVariable(), condition.getToVariable());
+        } else if (genericCondition instanceof Condition.Binary) {
+            var condition = (Condition.Binary) genericCondition;
+            return Arrays.asList(
+                    condition.getOperator(),
+                    getConditionKey(condition.getFirst()), getConditionKey(condition.getSecond()));
+        } else if (genericCondition instanceof Condition.In) {
+            var condition = (Condition.In) genericCondition;
+            return List.of("In", condition.getColumn(), condition.getVariable(), condition.getValues().size());
+        } else if (genericCondition instanceof Condition.Keyset) {
+            return List.of("Keyset", ((Condition.Keyset) genericCondition).getColumn());
+        } else if (genericCondition instanceof Condition.Permission) {
+            var condition = (Condition.Permission) genericCondition;
+            return List.of(
+                    "Permission", condition.getOwnerClass(), condition.getPropertyClass(),
+                    condition.getOwnerId() > 0, condition.getIncludeGroups());
+        } else if (genericCondition instanceof Condition.LatestPositions) {
+            return List.of("LatestPositions", ((Condition.LatestPositions) genericCondition).getDeviceId() > 0);
+        }
+        return genericCondition != null ? genericCondition.getClass() : null;
+    }
+
+    private String formatInsert(Class<?> clazz, List<String> columns) throws StorageException {
+        List<Object> key = List.of("INSERT", clazz, columns);
+        String query = statements.get(key);
+        if (query == null) {
+            query = "INSERT INTO " + getStorageName(clazz)
+                    + "(" + formatColumns(columns, c -> c) + ")"
+                    + " VALUES (" + formatColumns(columns, c -> ':' + c) + ")";
+            cacheStatement(key, query);
+        }
+        return query;
+    }
+
+    private String formatUpdate(Class<?> clazz, List<String> columns, String condition) throws StorageException {
+        List<Object> key = List.of("UPDATE", clazz, columns, condition);
+        String query = statements.get(key);
+        if (query == null) {
+            query = "UPDATE " + getStorageName(clazz)
+                    + " SET " + formatColumns(columns, c -> c + " = :" + c)
+                    + condition;
+            cacheStatement(key, query);
+        }
+        return query;
+    }
+
+    private void cacheStatement(List<Object> key, String query) {
+        if (statements.size() < STATEMENT_CACHE_SIZE) {
+            statements.put(key, query);
+        }
+    }
+
     private String formatColumns(List<String> columns, Function<String, String> mapper) {
         return columns.stream().map(mapper).collect(Collectors.joining(", "));
     }
@@ -276,6 +484,28 @@ public class DatabaseStorage extends Storage {
                 result.append(" ");
                 result.append(formatCondition(condition.getSecond(), false));
 
+            } else if (genericCondition instanceof Condition.In) {
+
+                var condition = (Condition.In) genericCondition;
+                result.append(condition.getColumn());
+                result.append(" IN (");
+                for (int i = 0; i < condition.getValues().size(); i++) {
+                    if (i > 0) {
+                        result.append(", ");
+                    }
+                    result.append(':').append(condition.getVariable()).append(i);
+                }
+                result.append(")");
+
+            } else if (genericCondition instanceof Condition.Keyset) {
+
+                var condition = (Condition.Keyset) genericCondition;
+                result.append("(");
+                result.append(condition.getColumn());
+                result.append(" > :keysetValue OR ");
+                result.append(condition.getColumn());
+                result.append(" = :keysetValue AND id > :keysetId)");
+
             } else if (genericCondition instanceof Condition.Permission) {
 
                 var condition = (Condition.Permission) genericCondition;
@@ -299,23 +529,37 @@ public class DatabaseStorage extends Storage {
         return result.toString();
     }
 
-    private String formatOrder(Order order) {
+    private String formatOrder(Order order, Limit limit) {
         StringBuilder result = new StringBuilder();
+        int count = limit != null ? limit.getValue() : 0;
         if (order != null) {
             result.append(" ORDER BY ");
             result.append(order.getColumn());
             if (order.getDescending()) {
                 result.append(" DESC");
             }
+            if (order.getSecondaryColumn() != null) {
+                result.append(", ");
+                result.append(order.getSecondaryColumn());
+                if (order.getDescending()) {
+                    result.append(" DESC");
+                }
+            }
             if (order.getLimit() > 0) {
-                if (databaseType.equals("Microsoft SQL Server")) {
-                    result.append(" OFFSET 0 ROWS FETCH FIRST ");
-                    result.append(order.getLimit());
-                    result.append(" ROWS ONLY");
-                } else {
-                    result.append(" LIMIT ");
-                    result.append(order.getLimit());
+                count = order.getLimit();
+            }
+        }
+        if (count > 0) {
+            if (databaseType.equals("Microsoft SQL Server")) {
+                if (order == null) {
+                    result.append(" ORDER BY (SELECT NULL)");
                 }
+                result.append(" OFFSET 0 ROWS FETCH FIRST ");
+                result.append(count);
+                result.append(" ROWS ONLY");
+            } else {
+                result.append(" LIMIT ");
+                result.append(count);
             }
         }
         return result.toString();
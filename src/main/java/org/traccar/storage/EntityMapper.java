@@ -0,0 +1,166 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.storage;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Property accessors of a storage entity class. Accessors are generated once per class using lambda metafactory, so
+ * mapping rows does not go through reflection. Property names are lower case to match column labels.
+ */
+public final class EntityMapper {
+
+    private static final Map<Class<?>, EntityMapper> MAPPERS = new ConcurrentHashMap<>();
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    public static final class Property {
+
+        private final Class<?> type;
+        private final Function<Object, Object> getter;
+        private final BiConsumer<Object, Object> setter;
+
+        private Property(Class<?> type, Function<Object, Object> getter, BiConsumer<Object, Object> setter) {
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        public Object get(Object object) {
+            return getter.apply(object);
+        }
+
+        public void set(Object object, Object value) {
+            setter.accept(object, value);
+        }
+
+    }
+
+    private final Supplier<Object> constructor;
+    private final Map<String, Property> getters = new HashMap<>();
+    private final Map<String, Property> setters = new HashMap<>();
+
+    private EntityMapper(Class<?> clazz) {
+        constructor = createConstructor(clazz);
+        for (Method method : clazz.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || method.isBridge() || method.getName().length() <= 3) {
+                continue;
+            }
+            String name = method.getName().substring(3).toLowerCase();
+            if (method.getName().startsWith("get") && method.getParameterCount() == 0
+                    && !method.getName().equals("getClass")) {
+                getters.put(name, new Property(method.getReturnType(), createGetter(method), null));
+            } else if (method.getName().startsWith("set") && method.getParameterCount() == 1) {
+                setters.put(name, new Property(method.getParameterTypes()[0], null, createSetter(method)));
+            }
+        }
+    }
+
+    public static EntityMapper get(Class<?> clazz) {
+        return MAPPERS.computeIfAbsent(clazz, EntityMapper::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T newInstance() {
+        return (T) constructor.get();
+    }
+
+    public Property getGetter(String name) {
+        return getters.get(name.toLowerCase());
+    }
+
+    public Property getSetter(String name) {
+        return setters.get(name.toLowerCase());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<Object> createConstructor(Class<?> clazz) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(clazz, MethodType.methodType(void.class));
+            CallSite site = LambdaMetafactory.metafactory(
+                    LOOKUP, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), handle, MethodType.methodType(clazz));
+            return (Supplier<Object>) site.getTarget().invokeExact();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return () -> {
+                throw new IllegalArgumentException("Missing public constructor in " + clazz.getName(), e);
+            };
+        } catch (Throwable e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> createGetter(Method method) {
+        try {
+            MethodHandle handle = LOOKUP.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(
+                    LOOKUP, "apply", MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class), handle,
+                    MethodType.methodType(box(method.getReturnType()), method.getDeclaringClass()));
+            return (Function<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable e) {
+            return object -> {
+                try {
+                    return method.invoke(object);
+                } catch (ReflectiveOperationException error) {
+                    throw new IllegalArgumentException(error);
+                }
+            };
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> createSetter(Method method) {
+        try {
+            MethodHandle handle = LOOKUP.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(
+                    LOOKUP, "accept", MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class), handle,
+                    MethodType.methodType(void.class, method.getDeclaringClass(), box(method.getParameterTypes()[0])));
+            return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable e) {
+            return (object, value) -> {
+                try {
+                    method.invoke(object, value);
+                } catch (ReflectiveOperationException error) {
+                    throw new IllegalArgumentException(error);
+                }
+            };
+        }
+    }
+
+    private static Class<?> box(Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+}
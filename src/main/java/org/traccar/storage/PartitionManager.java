@@ -0,0 +1,302 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintains monthly range partitions of the positions and events tables on PostgreSQL and MySQL. Partitions are named
+ * after the month they cover, for example "p202210". The partition created from the existing data when a table is
+ * converted covers everything up to the end of the conversion month.
+ * <p>
+ * On PostgreSQL rows outside of all month partitions go to the default partition. They are moved to the matching
+ * partition when it is created. On MySQL the same role is played by the "pmax" partition.
+ */
+@Singleton
+public class PartitionManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionManager.class);
+
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern MONTH_PATTERN = Pattern.compile("(?:^|_)p(\\d{6})$");
+
+    private static final class Table {
+
+        private final String name;
+        private final String column;
+        private final String index;
+
+        private Table(String name, String column, String index) {
+            this.name = name;
+            this.column = column;
+            this.index = index;
+        }
+
+    }
+
+    private static final List<Table> TABLES = List.of(
+            new Table("tc_positions", "fixtime", "position_deviceid_fixtime"),
+            new Table("tc_events", "eventtime", "event_deviceid_servertime"));
+
+    private final DataSource dataSource;
+    private final boolean enabled;
+    private final int ahead;
+    private final int retention;
+
+    @Inject
+    public PartitionManager(Config config, DataSource dataSource) {
+        this.dataSource = dataSource;
+        enabled = config.getBoolean(Keys.DATABASE_PARTITION_ENABLE);
+        ahead = config.getInteger(Keys.DATABASE_PARTITION_AHEAD);
+        retention = config.getInteger(Keys.DATABASE_PARTITION_RETENTION);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Convert tables that are not partitioned yet, create partitions for the months ahead and drop expired ones.
+     */
+    public void update() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            String databaseType = connection.getMetaData().getDatabaseProductName();
+            boolean postgres = databaseType.equals("PostgreSQL");
+            if (!postgres && !databaseType.equals("MySQL") && !databaseType.equals("MariaDB")) {
+                LOGGER.warn("Partitioning is not supported for {}", databaseType);
+                return;
+            }
+
+            YearMonth current = YearMonth.now(ZoneOffset.UTC);
+            for (Table table : TABLES) {
+                SortedSet<YearMonth> partitions = getPartitions(connection, postgres, table);
+                if (partitions == null) {
+                    LOGGER.info("Converting {} to partitioned table", table.name);
+                    if (postgres) {
+                        convertPostgres(connection, table, current);
+                    } else {
+                        convertMysql(connection, table, current);
+                    }
+                    partitions = new TreeSet<>(List.of(current));
+                }
+
+                YearMonth month = partitions.isEmpty() ? current : partitions.last().plusMonths(1);
+                while (!month.isAfter(current.plusMonths(ahead))) {
+                    LOGGER.info("Creating partition {} of {}", formatName(month), table.name);
+                    if (postgres) {
+                        createPostgres(connection, table, month);
+                    } else {
+                        execute(connection, "ALTER TABLE " + table.name + " REORGANIZE PARTITION pmax INTO ("
+                                + "PARTITION " + formatName(month)
+                                + " VALUES LESS THAN (" + formatBound(month.plusMonths(1)) + "), "
+                                + "PARTITION pmax VALUES LESS THAN (MAXVALUE))");
+                    }
+                    month = month.plusMonths(1);
+                }
+
+                if (retention > 0) {
+                    LocalDate cutoff = LocalDate.now(ZoneOffset.UTC).minusDays(retention);
+                    for (YearMonth partition : partitions) {
+                        if (!partition.plusMonths(1).atDay(1).isAfter(cutoff)) {
+                            LOGGER.info("Dropping expired partition {} of {}", formatName(partition), table.name);
+                            if (postgres) {
+                                execute(connection, "DROP TABLE " + table.name + "_" + formatName(partition));
+                            } else {
+                                execute(connection, "ALTER TABLE " + table.name
+                                        + " DROP PARTITION " + formatName(partition));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns months of the existing partitions or null if the table is not partitioned.
+     */
+    private SortedSet<YearMonth> getPartitions(
+            Connection connection, boolean postgres, Table table) throws SQLException {
+        String query;
+        if (postgres) {
+            query = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+                    + "WHERE i.inhparent = to_regclass(?)";
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT relkind FROM pg_class WHERE oid = to_regclass(?)")) {
+                statement.setString(1, table.name);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next() || !resultSet.getString(1).equals("p")) {
+                        return null;
+                    }
+                }
+            }
+        } else {
+            query = "SELECT partition_name FROM information_schema.partitions "
+                    + "WHERE table_schema = DATABASE() AND table_name = ? AND partition_name IS NOT NULL";
+        }
+
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, table.name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    names.add(resultSet.getString(1));
+                }
+            }
+        }
+        if (!postgres && names.isEmpty()) {
+            return null;
+        }
+
+        SortedSet<YearMonth> result = new TreeSet<>();
+        for (String name : names) {
+            Matcher matcher = MONTH_PATTERN.matcher(name);
+            if (matcher.find()) {
+                result.add(YearMonth.parse(matcher.group(1), MONTH_FORMAT));
+            }
+        }
+        return result;
+    }
+
+    private void convertPostgres(Connection connection, Table table, YearMonth month) throws SQLException {
+        String legacy = table.name + "_" + formatName(month);
+        String sequence = table.name + "_partition_id_seq";
+        String bound = formatBound(month.plusMonths(1));
+        inTransaction(connection, () -> {
+            execute(connection, "LOCK TABLE " + table.name + " IN ACCESS EXCLUSIVE MODE");
+            long nextId;
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM " + table.name)) {
+                resultSet.next();
+                nextId = resultSet.getLong(1);
+            }
+            execute(connection, "CREATE SEQUENCE " + sequence + " START WITH " + nextId);
+            execute(connection, "ALTER TABLE " + table.name + " RENAME TO " + legacy);
+            execute(connection, "ALTER TABLE " + legacy + " ALTER COLUMN id DROP IDENTITY IF EXISTS");
+            execute(connection, "ALTER TABLE " + legacy + " ALTER COLUMN id DROP DEFAULT");
+            execute(connection, "ALTER INDEX IF EXISTS " + table.index + " RENAME TO " + legacy + "_deviceid");
+
+            execute(connection, "CREATE TABLE " + table.name + " (LIKE " + legacy + " INCLUDING DEFAULTS) "
+                    + "PARTITION BY RANGE (" + table.column + ")");
+            execute(connection, "ALTER TABLE " + table.name
+                    + " ALTER COLUMN id SET DEFAULT nextval('" + sequence + "')");
+            execute(connection, "ALTER SEQUENCE " + sequence + " OWNED BY " + table.name + ".id");
+            execute(connection, "ALTER TABLE " + table.name + " ADD PRIMARY KEY (id, " + table.column + ")");
+            execute(connection, "CREATE INDEX " + table.index
+                    + " ON " + table.name + " (deviceid, " + table.column + ")");
+            execute(connection, "CREATE TABLE " + table.name + "_default PARTITION OF " + table.name + " DEFAULT");
+
+            execute(connection, "INSERT INTO " + table.name + "_default SELECT * FROM " + legacy
+                    + " WHERE " + table.column + " >= " + bound);
+            execute(connection, "DELETE FROM " + legacy + " WHERE " + table.column + " >= " + bound);
+            execute(connection, "ALTER TABLE " + legacy + " ADD CONSTRAINT " + legacy + "_bound"
+                    + " CHECK (" + table.column + " < " + bound + ")");
+            execute(connection, "ALTER TABLE " + table.name + " ATTACH PARTITION " + legacy
+                    + " FOR VALUES FROM (MINVALUE) TO (" + bound + ")");
+            execute(connection, "ALTER TABLE " + table.name + " ADD FOREIGN KEY (deviceid)"
+                    + " REFERENCES tc_devices (id) ON DELETE CASCADE");
+        });
+    }
+
+    private void convertMysql(Connection connection, Table table, YearMonth month) throws SQLException {
+        List<String> foreignKeys = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT constraint_name FROM information_schema.table_constraints "
+                        + "WHERE table_schema = DATABASE() AND table_name = ? AND constraint_type = 'FOREIGN KEY'")) {
+            statement.setString(1, table.name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    foreignKeys.add(resultSet.getString(1));
+                }
+            }
+        }
+        for (String foreignKey : foreignKeys) {
+            execute(connection, "ALTER TABLE " + table.name + " DROP FOREIGN KEY " + foreignKey);
+        }
+        execute(connection, "ALTER TABLE " + table.name
+                + " DROP PRIMARY KEY, ADD PRIMARY KEY (id, " + table.column + ")"
+                + " PARTITION BY RANGE COLUMNS (" + table.column + ") ("
+                + "PARTITION " + formatName(month) + " VALUES LESS THAN (" + formatBound(month.plusMonths(1)) + "), "
+                + "PARTITION pmax VALUES LESS THAN (MAXVALUE))");
+    }
+
+    private void createPostgres(Connection connection, Table table, YearMonth month) throws SQLException {
+        String name = table.name + "_" + formatName(month);
+        String range = table.column + " >= " + formatBound(month)
+                + " AND " + table.column + " < " + formatBound(month.plusMonths(1));
+        inTransaction(connection, () -> {
+            execute(connection, "CREATE TABLE " + name + " (LIKE " + table.name + " INCLUDING DEFAULTS)");
+            execute(connection, "INSERT INTO " + name + " SELECT * FROM " + table.name + "_default WHERE " + range);
+            execute(connection, "DELETE FROM " + table.name + "_default WHERE " + range);
+            execute(connection, "ALTER TABLE " + table.name + " ATTACH PARTITION " + name
+                    + " FOR VALUES FROM (" + formatBound(month) + ") TO (" + formatBound(month.plusMonths(1)) + ")");
+        });
+    }
+
+    private interface SqlAction {
+        void run() throws SQLException;
+    }
+
+    private static void inTransaction(Connection connection, SqlAction action) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            action.run();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static String formatName(YearMonth month) {
+        return "p" + month.format(MONTH_FORMAT);
+    }
+
+    private static String formatBound(YearMonth month) {
+        return "'" + month.atDay(1) + " 00:00:00'";
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.storage;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import javax.inject.Singleton;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection pool statistics, including a histogram of connection acquire times.
+ */
+@Singleton
+public class PoolMetrics {
+
+    /**
+     * Upper bounds of the acquire time histogram buckets in milliseconds. The last bucket is unbounded.
+     */
+    public static final long[] BUCKETS = {1, 5, 10, 50, 100, 500, 1000};
+
+    public static final class Pool {
+
+        private final String name;
+        private final PoolStats poolStats;
+
+        private final LongAdder[] histogram = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder acquireTime = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+
+        private Pool(String name, PoolStats poolStats) {
+            this.name = name;
+            this.poolStats = poolStats;
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        private void recordAcquire(long nanos) {
+            acquireTime.add(nanos);
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int index = 0;
+            while (index < BUCKETS.length && millis >= BUCKETS[index]) {
+                index += 1;
+            }
+            histogram[index].increment();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getActiveConnections() {
+            return poolStats.getActiveConnections();
+        }
+
+        public int getIdleConnections() {
+            return poolStats.getIdleConnections();
+        }
+
+        public int getPendingThreads() {
+            return poolStats.getPendingThreads();
+        }
+
+        public int getTotalConnections() {
+            return poolStats.getTotalConnections();
+        }
+
+        /**
+         * Acquire count per histogram bucket since the previous call.
+         */
+        public long[] resetHistogram() {
+            long[] result = new long[histogram.length];
+            for (int i = 0; i < histogram.length; i++) {
+                result[i] = histogram[i].sumThenReset();
+            }
+            return result;
+        }
+
+        /**
+         * Total acquire time in milliseconds since the previous call.
+         */
+        public double resetAcquireTime() {
+            return acquireTime.sumThenReset() / 1000000.0;
+        }
+
+        public long resetTimeouts() {
+            return timeouts.sumThenReset();
+        }
+
+    }
+
+    private final Map<String, Pool> pools = new ConcurrentSkipListMap<>();
+
+    public Collection<Pool> getPools() {
+        return pools.values();
+    }
+
+    /**
+     * Create tracker factory for a connection pool. Acquire times are also reported to the optional listener.
+     */
+    public MetricsTrackerFactory createFactory(MetricsTrackerFactory listener) {
+        return (poolName, poolStats) -> {
+            Pool pool = new Pool(poolName, poolStats);
+            pools.put(poolName, pool);
+            IMetricsTracker listenerTracker = listener != null ? listener.create(poolName, poolStats) : null;
+            return new IMetricsTracker() {
+                @Override
+                public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                    pool.recordAcquire(elapsedAcquiredNanos);
+                    if (listenerTracker != null) {
+                        listenerTracker.recordConnectionAcquiredNanos(elapsedAcquiredNanos);
+                    }
+                }
+
+                @Override
+                public void recordConnectionTimeout() {
+                    pool.timeouts.increment();
+                }
+            };
+        };
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.model.Network;
+import org.traccar.model.Position;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compressed archive of old positions. Positions are stored in files with one block per device and day, using UTC
+ * days. Times and coordinates are delta encoded against the previous position and attributes use the compact
+ * attributes encoding. Coordinates are stored with the precision of 7 decimal digits.
+ */
+@Singleton
+public class PositionArchive {
+
+    private static final int VERSION = 1;
+    private static final double COORDINATE_SCALE = 10000000;
+
+    private final Path path;
+    private final ObjectMapper objectMapper;
+
+    @Inject
+    public PositionArchive(Config config, ObjectMapper objectMapper) {
+        String value = config.getString(Keys.DATABASE_ARCHIVE_PATH);
+        path = value != null ? Paths.get(value) : null;
+        this.objectMapper = objectMapper;
+    }
+
+    public boolean isEnabled() {
+        return path != null;
+    }
+
+    private Path getFile(long deviceId, LocalDate day) {
+        return path.resolve(String.valueOf(deviceId)).resolve(day + ".bin");
+    }
+
+    /**
+     * Returns archived positions of the device with fix time within the period, ordered by fix time.
+     */
+    public List<Position> getPositions(long deviceId, Date from, Date to) throws IOException {
+        List<Position> result = new ArrayList<>();
+        try {
+            iteratePositions(deviceId, from, to).forEachRemaining(result::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return result;
+    }
+
+    /**
+     * Iterates over archived positions of the device with fix time within the period, ordered by fix time. Only one
+     * day block is kept in memory at a time. Read errors are thrown as {@link UncheckedIOException}.
+     */
+    public Iterator<Position> iteratePositions(long deviceId, Date from, Date to) {
+        if (path == null) {
+            return Collections.emptyIterator();
+        }
+        return new BlockIterator(deviceId, from, to);
+    }
+
+    private final class BlockIterator implements Iterator<Position> {
+
+        private final long deviceId;
+        private final Date from;
+        private final Date to;
+        private final LocalDate last;
+
+        private LocalDate day;
+        private Iterator<Position> block = Collections.emptyIterator();
+        private Position next;
+
+        private BlockIterator(long deviceId, Date from, Date to) {
+            this.deviceId = deviceId;
+            this.from = from;
+            this.to = to;
+            day = from.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+            last = to.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+            next = findNext();
+        }
+
+        private Position findNext() {
+            while (true) {
+                while (block.hasNext()) {
+                    Position position = block.next();
+                    if (!position.getFixTime().before(from) && !position.getFixTime().after(to)) {
+                        return position;
+                    }
+                }
+                if (day.isAfter(last)) {
+                    return null;
+                }
+                try {
+                    block = readBlock(deviceId, day).iterator();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                day = day.plusDays(1);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Position next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Position result = next;
+            next = findNext();
+            return result;
+        }
+
+    }
+
+    /**
+     * Add positions of one device and day to the archive. Positions that are already archived are replaced.
+     */
+    public void addPositions(long deviceId, LocalDate day, List<Position> positions) throws IOException {
+        Map<Long, Position> merged = new LinkedHashMap<>();
+        for (Position position : readBlock(deviceId, day)) {
+            merged.put(position.getId(), position);
+        }
+        for (Position position : positions) {
+            merged.put(position.getId(), position);
+        }
+        List<Position> result = new ArrayList<>(merged.values());
+        result.sort(Comparator.comparing(Position::getFixTime).thenComparingLong(Position::getId));
+
+        Path file = getFile(deviceId, day);
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream output = new DeflaterOutputStream(Files.newOutputStream(temporary))) {
+            output.write(encode(day, result));
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Position> readBlock(long deviceId, LocalDate day) throws IOException {
+        Path file = getFile(deviceId, day);
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        try (InputStream input = new InflaterInputStream(Files.newInputStream(file))) {
+            return decode(deviceId, day, input.readAllBytes());
+        }
+    }
+
+    private byte[] encode(LocalDate day, List<Position> positions) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(VERSION);
+        AttributesCodec.writeVarInt(output, positions.size());
+        long previousId = 0;
+        long previousTime = day.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        long previousLatitude = 0;
+        long previousLongitude = 0;
+        for (Position position : positions) {
+            long time = position.getFixTime().getTime();
+            long latitude = Math.round(position.getLatitude() * COORDINATE_SCALE);
+            long longitude = Math.round(position.getLongitude() * COORDINATE_SCALE);
+
+            AttributesCodec.writeVarInt(output, AttributesCodec.zigZag(position.getId() - previousId));
+            AttributesCodec.writeVarInt(output, AttributesCodec.zigZag(time - previousTime));
+            writeTime(output, position.getDeviceTime(), time);
+            writeTime(output, position.getServerTime(), time);
+            output.write(position.getValid() ? 1 : 0);
+            AttributesCodec.writeVarInt(output, AttributesCodec.zigZag(latitude - previousLatitude));
+            AttributesCodec.writeVarInt(output, AttributesCodec.zigZag(longitude - previousLongitude));
+            AttributesCodec.writeValue(output, objectMapper, position.getAltitude());
+            AttributesCodec.writeValue(output, objectMapper, position.getSpeed());
+            AttributesCodec.writeValue(output, objectMapper, position.getCourse());
+            AttributesCodec.writeValue(output, objectMapper, position.getAccuracy());
+            AttributesCodec.writeValue(output, objectMapper, position.getProtocol());
+            AttributesCodec.writeValue(output, objectMapper, position.getAddress());
+            AttributesCodec.writeValue(output, objectMapper,
+                    position.getNetwork() != null ? objectMapper.writeValueAsString(position.getNetwork()) : null);
+            byte[] attributes = AttributesCodec.encodeBinary(objectMapper, position.getAttributes());
+            AttributesCodec.writeVarInt(output, attributes.length);
+            output.write(attributes);
+
+            previousId = position.getId();
+            previousTime = time;
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+        }
+        return output.toByteArray();
+    }
+
+    private List<Position> decode(long deviceId, LocalDate day, byte[] data) throws IOException {
+        ByteBuffer input = ByteBuffer.wrap(data);
+        try {
+            int version = input.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported archive version " + version);
+            }
+            int count = (int) AttributesCodec.readVarInt(input);
+            List<Position> positions = new ArrayList<>(count);
+            long id = 0;
+            long time = day.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            long latitude = 0;
+            long longitude = 0;
+            for (int i = 0; i < count; i++) {
+                id += AttributesCodec.unZigZag(AttributesCodec.readVarInt(input));
+                time += AttributesCodec.unZigZag(AttributesCodec.readVarInt(input));
+
+                Position position = new Position();
+                position.setId(id);
+                position.setDeviceId(deviceId);
+                position.setFixTime(new Date(time));
+                position.setDeviceTime(readTime(input, time));
+                position.setServerTime(readTime(input, time));
+                position.setValid(input.get() != 0);
+
+                latitude += AttributesCodec.unZigZag(AttributesCodec.readVarInt(input));
+                longitude += AttributesCodec.unZigZag(AttributesCodec.readVarInt(input));
+                position.setLatitude(latitude / COORDINATE_SCALE);
+                position.setLongitude(longitude / COORDINATE_SCALE);
+
+                position.setAltitude((Double) AttributesCodec.readValue(input, objectMapper));
+                position.setSpeed((Double) AttributesCodec.readValue(input, objectMapper));
+                position.setCourse((Double) AttributesCodec.readValue(input, objectMapper));
+                position.setAccuracy((Double) AttributesCodec.readValue(input, objectMapper));
+                position.setProtocol((String) AttributesCodec.readValue(input, objectMapper));
+                position.setAddress((String) AttributesCodec.readValue(input, objectMapper));
+                String network = (String) AttributesCodec.readValue(input, objectMapper);
+                if (network != null) {
+                    position.setNetwork(objectMapper.readValue(network, Network.class));
+                }
+                int length = (int) AttributesCodec.readVarInt(input);
+                position.setAttributes(AttributesCodec.decodeBinary(objectMapper, input.slice().limit(length)));
+                input.position(input.position() + length);
+
+                positions.add(position);
+            }
+            return positions;
+        } catch (BufferUnderflowException | IllegalArgumentException | ClassCastException e) {
+            throw new IOException("Invalid archive block", e);
+        }
+    }
+
+    private static void writeTime(ByteArrayOutputStream output, Date value, long base) {
+        if (value != null) {
+            output.write(1);
+            AttributesCodec.writeVarInt(output, AttributesCodec.zigZag(value.getTime() - base));
+        } else {
+            output.write(0);
+        }
+    }
+
+    private static Date readTime(ByteBuffer input, long base) throws IOException {
+        if (input.get() != 0) {
+            return new Date(base + AttributesCodec.unZigZag(AttributesCodec.readVarInt(input)));
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.model.Network;
+import org.traccar.model.Position;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local snapshot of the latest device positions used to warm up the cache after a restart. The file is memory mapped
+ * on startup and positions are decoded lazily, only after the caller confirms that the position id still matches the
+ * device. Each record is restored at most once. Records that were not restored are carried over to the next snapshot.
+ */
+@Singleton
+public class PositionSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PositionSnapshot.class);
+
+    private static final int VERSION = 1;
+
+    private final Path path;
+    private final long interval;
+    private final ObjectMapper objectMapper;
+
+    private final Map<Long, Integer> offsets = new ConcurrentHashMap<>();
+    private volatile ByteBuffer buffer;
+
+    @Inject
+    public PositionSnapshot(Config config, ObjectMapper objectMapper) {
+        String value = config.getString(Keys.DATABASE_SNAPSHOT_PATH);
+        path = value != null ? Paths.get(value) : null;
+        interval = config.getLong(Keys.DATABASE_SNAPSHOT_INTERVAL);
+        this.objectMapper = objectMapper;
+        if (path != null && Files.exists(path)) {
+            try {
+                open();
+                LOGGER.info("Position snapshot loaded with {} devices", offsets.size());
+            } catch (IOException e) {
+                offsets.clear();
+                buffer = null;
+                LOGGER.warn("Failed to load position snapshot", e);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return path != null;
+    }
+
+    /**
+     * Snapshot interval in seconds.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    private void open() throws IOException {
+        ByteBuffer input;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            int version = input.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            while (input.hasRemaining()) {
+                long deviceId = AttributesCodec.readVarInt(input);
+                offsets.put(deviceId, input.position());
+                int length = (int) AttributesCodec.readVarInt(input);
+                input.position(input.position() + length);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Invalid snapshot file", e);
+        }
+        buffer = input;
+    }
+
+    /**
+     * Returns the snapshot position of the device if it has the expected id, otherwise null. The record is removed
+     * either way, because the cache keeps the position up to date from then on.
+     */
+    public Position getPosition(long deviceId, long positionId) {
+        ByteBuffer buffer = this.buffer;
+        Integer offset = offsets.remove(deviceId);
+        if (buffer == null || offset == null) {
+            return null;
+        }
+        try {
+            ByteBuffer input = buffer.duplicate().position(offset);
+            int length = (int) AttributesCodec.readVarInt(input);
+            input.limit(input.position() + length);
+            if (AttributesCodec.readVarInt(input) != positionId) {
+                return null;
+            }
+            return decode(deviceId, positionId, input);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | ClassCastException e) {
+            LOGGER.warn("Failed to restore snapshot position", e);
+            return null;
+        } finally {
+            if (offsets.isEmpty()) {
+                this.buffer = null;
+            }
+        }
+    }
+
+    /**
+     * Replace the snapshot with the given positions. Records of other devices that were not restored yet are kept.
+     */
+    public synchronized void write(Collection<Position> positions) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(VERSION);
+        Set<Long> deviceIds = new HashSet<>();
+        for (Position position : positions) {
+            byte[] record = encode(position);
+            AttributesCodec.writeVarInt(output, position.getDeviceId());
+            AttributesCodec.writeVarInt(output, record.length);
+            output.write(record);
+            deviceIds.add(position.getDeviceId());
+        }
+
+        ByteBuffer buffer = this.buffer;
+        if (buffer != null) {
+            for (Map.Entry<Long, Integer> entry : offsets.entrySet()) {
+                if (!deviceIds.contains(entry.getKey())) {
+                    ByteBuffer input = buffer.duplicate().position(entry.getValue());
+                    int length = (int) AttributesCodec.readVarInt(input);
+                    byte[] record = new byte[length];
+                    input.get(record);
+                    AttributesCodec.writeVarInt(output, entry.getKey());
+                    AttributesCodec.writeVarInt(output, length);
+                    output.write(record);
+                }
+            }
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temporary, output.toByteArray());
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private byte[] encode(Position position) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        AttributesCodec.writeVarInt(output, position.getId());
+        writeTime(output, position.getFixTime());
+        writeTime(output, position.getDeviceTime());
+        writeTime(output, position.getServerTime());
+        output.write(position.getValid() ? 1 : 0);
+        AttributesCodec.writeValue(output, objectMapper, position.getLatitude());
+        AttributesCodec.writeValue(output, objectMapper, position.getLongitude());
+        AttributesCodec.writeValue(output, objectMapper, position.getAltitude());
+        AttributesCodec.writeValue(output, objectMapper, position.getSpeed());
+        AttributesCodec.writeValue(output, objectMapper, position.getCourse());
+        AttributesCodec.writeValue(output, objectMapper, position.getAccuracy());
+        AttributesCodec.writeValue(output, objectMapper, position.getProtocol());
+        AttributesCodec.writeValue(output, objectMapper, position.getAddress());
+        AttributesCodec.writeValue(output, objectMapper,
+                position.getNetwork() != null ? objectMapper.writeValueAsString(position.getNetwork()) : null);
+        output.write(AttributesCodec.encodeBinary(objectMapper, position.getAttributes()));
+        return output.toByteArray();
+    }
+
+    private Position decode(long deviceId, long positionId, ByteBuffer input) throws IOException {
+        Position position = new Position();
+        position.setId(positionId);
+        position.setDeviceId(deviceId);
+        position.setFixTime(readTime(input));
+        position.setDeviceTime(readTime(input));
+        position.setServerTime(readTime(input));
+        position.setValid(input.get() != 0);
+        position.setLatitude(((Number) AttributesCodec.readValue(input, objectMapper)).doubleValue());
+        position.setLongitude(((Number) AttributesCodec.readValue(input, objectMapper)).doubleValue());
+        position.setAltitude(((Number) AttributesCodec.readValue(input, objectMapper)).doubleValue());
+        position.setSpeed(((Number) AttributesCodec.readValue(input, objectMapper)).doubleValue());
+        position.setCourse(((Number) AttributesCodec.readValue(input, objectMapper)).doubleValue());
+        position.setAccuracy(((Number) AttributesCodec.readValue(input, objectMapper)).doubleValue());
+        position.setProtocol((String) AttributesCodec.readValue(input, objectMapper));
+        position.setAddress((String) AttributesCodec.readValue(input, objectMapper));
+        String network = (String) AttributesCodec.readValue(input, objectMapper);
+        if (network != null) {
+            position.setNetwork(objectMapper.readValue(network, Network.class));
+        }
+        position.setAttributes(AttributesCodec.decodeBinary(objectMapper, input.slice()));
+        return position;
+    }
+
+    private static void writeTime(ByteArrayOutputStream output, Date value) {
+        AttributesCodec.writeVarInt(output, value != null ? AttributesCodec.zigZag(value.getTime()) + 1 : 0);
+    }
+
+    private static Date readTime(ByteBuffer input) throws IOException {
+        long value = AttributesCodec.readVarInt(input);
+        return value != 0 ? new Date(AttributesCodec.unZigZag(value - 1)) : null;
+    }
+
+}
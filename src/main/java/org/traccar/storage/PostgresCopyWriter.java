@@ -0,0 +1,264 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inserts batches of entities using PostgreSQL binary COPY. COPY doesn't return generated keys, so ids are allocated
+ * from the table sequence in advance and written explicitly. Values are encoded according to the actual column types,
+ * which are read from the database once per table.
+ */
+public class PostgresCopyWriter {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    private static final int CHUNK_SIZE = 65536;
+
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+    private final boolean binaryAttributes;
+
+    private final Map<String, TableInfo> tables = new ConcurrentHashMap<>();
+
+    private static final class TableInfo {
+
+        private final String sequence;
+        private final Map<String, String> types;
+
+        private TableInfo(String sequence, Map<String, String> types) {
+            this.sequence = sequence;
+            this.types = types;
+        }
+
+    }
+
+    public PostgresCopyWriter(DataSource dataSource, ObjectMapper objectMapper, boolean binaryAttributes) {
+        this.dataSource = dataSource;
+        this.objectMapper = objectMapper;
+        this.binaryAttributes = binaryAttributes;
+    }
+
+    public List<Long> addObjects(
+            String tableName, List<?> entities, List<String> columns) throws SQLException, IOException {
+        EntityMapper mapper = EntityMapper.get(entities.get(0).getClass());
+        boolean encodeAttributes = binaryAttributes && AttributesCodec.isSupported(entities.get(0).getClass());
+        List<EntityMapper.Property> properties = new ArrayList<>();
+        for (String column : columns) {
+            EntityMapper.Property property = mapper.getGetter(column);
+            if (property == null) {
+                throw new IllegalArgumentException("Unknown property " + column);
+            }
+            properties.add(property);
+        }
+
+        try (Connection connection = dataSource.getConnection()) {
+            TableInfo table = getTableInfo(connection, tableName);
+            List<String> types = new ArrayList<>();
+            for (String column : columns) {
+                String type = table.types.get(column.toLowerCase());
+                if (type == null) {
+                    throw new IllegalArgumentException("Unknown column " + column);
+                }
+                types.add(type);
+            }
+
+            List<Long> ids = allocateIds(connection, table.sequence, entities.size());
+
+            String query = "COPY " + tableName + " (id, " + String.join(", ", columns) + ") FROM STDIN (FORMAT binary)";
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(query);
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(CHUNK_SIZE * 2);
+                DataOutputStream output = new DataOutputStream(buffer);
+                output.write(SIGNATURE);
+                output.writeInt(0);
+                output.writeInt(0);
+                for (int i = 0; i < entities.size(); i++) {
+                    Object entity = entities.get(i);
+                    output.writeShort(columns.size() + 1);
+                    writeValue(output, table.types.get("id"), ids.get(i));
+                    for (int j = 0; j < columns.size(); j++) {
+                        Object value = properties.get(j).get(entity);
+                        if (value instanceof Long && (Long) value == 0 && columns.get(j).endsWith("Id")) {
+                            value = null;
+                        }
+                        if (encodeAttributes && value instanceof Map) {
+                            @SuppressWarnings("unchecked")
+                            Map<String, Object> attributes = (Map<String, Object>) value;
+                            value = AttributesCodec.encode(objectMapper, attributes);
+                        }
+                        writeValue(output, types.get(j), value);
+                    }
+                    if (buffer.size() >= CHUNK_SIZE) {
+                        copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+                        buffer.reset();
+                    }
+                }
+                output.writeShort(-1);
+                copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+            return ids;
+        }
+    }
+
+    private TableInfo getTableInfo(Connection connection, String tableName) throws SQLException {
+        TableInfo table = tables.get(tableName);
+        if (table == null) {
+            String sequence;
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_get_serial_sequence(?, 'id')")) {
+                statement.setString(1, tableName);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    sequence = resultSet.getString(1);
+                }
+            }
+            if (sequence == null) {
+                throw new SQLException("No id sequence for " + tableName);
+            }
+            Map<String, String> types = new HashMap<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT column_name, udt_name FROM information_schema.columns "
+                            + "WHERE table_schema = current_schema() AND table_name = ?")) {
+                statement.setString(1, tableName);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        types.put(resultSet.getString(1).toLowerCase(), resultSet.getString(2));
+                    }
+                }
+            }
+            table = new TableInfo(sequence, types);
+            tables.put(tableName, table);
+        }
+        return table;
+    }
+
+    private List<Long> allocateIds(Connection connection, String sequence, int count) throws SQLException {
+        List<Long> ids = new ArrayList<>(count);
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT nextval(?) FROM generate_series(1, ?)")) {
+            statement.setString(1, sequence);
+            statement.setInt(2, count);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void writeValue(DataOutputStream output, String type, Object value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        switch (type) {
+            case "bool":
+                output.writeInt(1);
+                output.writeByte((Boolean) value ? 1 : 0);
+                break;
+            case "int2":
+                output.writeInt(2);
+                output.writeShort(((Number) value).shortValue());
+                break;
+            case "int4":
+                output.writeInt(4);
+                output.writeInt(((Number) value).intValue());
+                break;
+            case "int8":
+                output.writeInt(8);
+                output.writeLong(((Number) value).longValue());
+                break;
+            case "float4":
+                output.writeInt(4);
+                output.writeFloat(((Number) value).floatValue());
+                break;
+            case "float8":
+                output.writeInt(8);
+                output.writeDouble(((Number) value).doubleValue());
+                break;
+            case "timestamp":
+                // values without time zone are stored in the server local time, same as with JDBC
+                output.writeInt(8);
+                output.writeLong(ChronoUnit.MICROS.between(
+                        EPOCH, LocalDateTime.ofInstant(((Date) value).toInstant(), ZoneId.systemDefault())));
+                break;
+            case "timestamptz":
+                output.writeInt(8);
+                output.writeLong(ChronoUnit.MICROS.between(
+                        EPOCH.toInstant(ZoneOffset.UTC), ((Date) value).toInstant()));
+                break;
+            case "bytea":
+                byte[] bytes = (byte[]) value;
+                output.writeInt(bytes.length);
+                output.write(bytes);
+                break;
+            case "jsonb":
+                byte[] json = formatString(value).getBytes(StandardCharsets.UTF_8);
+                output.writeInt(json.length + 1);
+                output.writeByte(1);
+                output.write(json);
+                break;
+            case "varchar":
+            case "text":
+            case "bpchar":
+            case "json":
+                byte[] text = formatString(value).getBytes(StandardCharsets.UTF_8);
+                output.writeInt(text.length);
+                output.write(text);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported column type " + type);
+        }
+    }
+
+    private String formatString(Object value) throws IOException {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        return objectMapper.writeValueAsString(value);
+    }
+
+}
@@ -15,7 +15,6 @@
  */
 package org.traccar.storage;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,58 +24,111 @@ import org.traccar.model.Permission;
 
 import javax.sql.DataSource;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @SuppressWarnings("UnusedReturnValue")
 public final class QueryBuilder {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryBuilder.class);
 
+    private static final int QUERY_CACHE_SIZE = 1000;
+
+    private static final Map<String, ParsedQuery> QUERY_CACHE = new ConcurrentHashMap<>();
+
+    private static final class ParsedQuery {
+
+        private final String query;
+        private final Map<String, List<Integer>> indexMap;
+
+        private ParsedQuery(String query, Map<String, List<Integer>> indexMap) {
+            this.query = query;
+            this.indexMap = indexMap;
+        }
+
+    }
+
     private final Config config;
     private final ObjectMapper objectMapper;
+    private final QueryMetrics queryMetrics;
 
-    private final Map<String, List<Integer>> indexMap = new HashMap<>();
+    private final Map<String, List<Integer>> indexMap;
     private Connection connection;
     private PreparedStatement statement;
     private final String query;
     private final boolean returnGeneratedKeys;
 
+    private long acquireTime;
+    private Map<String, Object> values;
+    private int batchCount;
+
     private QueryBuilder(
-            Config config, DataSource dataSource, ObjectMapper objectMapper,
+            Config config, DataSource dataSource, ObjectMapper objectMapper, QueryMetrics queryMetrics,
             String query, boolean returnGeneratedKeys) throws SQLException {
         this.config = config;
         this.objectMapper = objectMapper;
+        this.queryMetrics = queryMetrics;
         this.query = query;
         this.returnGeneratedKeys = returnGeneratedKeys;
+        if (queryMetrics != null && queryMetrics.getSlowQueryThreshold() > 0) {
+            values = new LinkedHashMap<>();
+        }
         if (query != null) {
+            ParsedQuery parsedQuery = parse(query);
+            indexMap = parsedQuery.indexMap;
+            long startTime = System.nanoTime();
             connection = dataSource.getConnection();
-            String parsedQuery = parse(query.trim(), indexMap);
+            acquireTime = System.nanoTime() - startTime;
             try {
                 if (returnGeneratedKeys) {
-                    statement = connection.prepareStatement(parsedQuery, Statement.RETURN_GENERATED_KEYS);
+                    statement = connection.prepareStatement(parsedQuery.query, Statement.RETURN_GENERATED_KEYS);
                 } else {
-                    statement = connection.prepareStatement(parsedQuery);
+                    statement = connection.prepareStatement(parsedQuery.query);
                 }
             } catch (SQLException error) {
                 connection.close();
                 throw error;
             }
+        } else {
+            indexMap = Map.of();
+        }
+    }
+
+    /**
+     * Translate named parameters to JDBC placeholders. Results are cached, so statements generated for the same entity
+     * class, columns and condition shape are parsed only once.
+     */
+    private static ParsedQuery parse(String query) {
+        ParsedQuery parsedQuery = QUERY_CACHE.get(query);
+        if (parsedQuery == null) {
+            Map<String, List<Integer>> indexMap = new HashMap<>();
+            String result = parse(query.trim(), indexMap);
+            indexMap.replaceAll((key, value) -> List.copyOf(value));
+            parsedQuery = new ParsedQuery(result, Map.copyOf(indexMap));
+            if (QUERY_CACHE.size() < QUERY_CACHE_SIZE) {
+                QUERY_CACHE.put(query, parsedQuery);
+            }
         }
+        return parsedQuery;
     }
 
     private static String parse(String query, Map<String, List<Integer>> paramMap) {
@@ -136,26 +188,40 @@ public final class QueryBuilder {
     }
 
     public static QueryBuilder create(
-            Config config, DataSource dataSource, ObjectMapper objectMapper, String query) throws SQLException {
-        return new QueryBuilder(config, dataSource, objectMapper, query, false);
+            Config config, DataSource dataSource, ObjectMapper objectMapper, QueryMetrics queryMetrics,
+            String query) throws SQLException {
+        return new QueryBuilder(config, dataSource, objectMapper, queryMetrics, query, false);
     }
 
     public static QueryBuilder create(
-            Config config, DataSource dataSource, ObjectMapper objectMapper, String query,
-            boolean returnGeneratedKeys) throws SQLException {
-        return new QueryBuilder(config, dataSource, objectMapper, query, returnGeneratedKeys);
+            Config config, DataSource dataSource, ObjectMapper objectMapper, QueryMetrics queryMetrics,
+            String query, boolean returnGeneratedKeys) throws SQLException {
+        return new QueryBuilder(config, dataSource, objectMapper, queryMetrics, query, returnGeneratedKeys);
     }
 
     private List<Integer> indexes(String name) {
-        name = name.toLowerCase();
-        List<Integer> result = indexMap.get(name);
-        if (result == null) {
-            result = new LinkedList<>();
+        List<Integer> result = indexMap.get(name.toLowerCase());
+        return result != null ? result : List.of();
+    }
+
+    /**
+     * Record a bound value for the slow query log. Strings and binary values are recorded by length only, because
+     * they can contain passwords, salts, tokens and other secrets.
+     */
+    private void recordValue(String name, Object value) {
+        if (values != null) {
+            if (value instanceof String) {
+                values.put(name, ((String) value).length() + " chars");
+            } else if (value instanceof byte[]) {
+                values.put(name, ((byte[]) value).length + " bytes");
+            } else {
+                values.put(name, value);
+            }
         }
-        return result;
     }
 
     public QueryBuilder setBoolean(String name, boolean value) throws SQLException {
+        recordValue(name, value);
         for (int i : indexes(name)) {
             try {
                 statement.setBoolean(i, value);
@@ -169,6 +235,7 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setInteger(String name, int value) throws SQLException {
+        recordValue(name, value);
         for (int i : indexes(name)) {
             try {
                 statement.setInt(i, value);
@@ -186,6 +253,7 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setLong(String name, long value, boolean nullIfZero) throws SQLException {
+        recordValue(name, value);
         for (int i : indexes(name)) {
             try {
                 if (value == 0 && nullIfZero) {
@@ -203,6 +271,7 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setDouble(String name, double value) throws SQLException {
+        recordValue(name, value);
         for (int i : indexes(name)) {
             try {
                 statement.setDouble(i, value);
@@ -216,6 +285,7 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setString(String name, String value) throws SQLException {
+        recordValue(name, value);
         for (int i : indexes(name)) {
             try {
                 if (value == null) {
@@ -233,6 +303,7 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setDate(String name, Date value) throws SQLException {
+        recordValue(name, value);
         for (int i : indexes(name)) {
             try {
                 if (value == null) {
@@ -250,6 +321,7 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setBlob(String name, byte[] value) throws SQLException {
+        recordValue(name, value);
         for (int i : indexes(name)) {
             try {
                 if (value == null) {
@@ -285,29 +357,40 @@ public final class QueryBuilder {
 
     public QueryBuilder setObject(Object object, List<String> columns) throws SQLException {
 
+        EntityMapper mapper = EntityMapper.get(object.getClass());
+        boolean binaryAttributes = config.getBoolean(Keys.DATABASE_BINARY_ATTRIBUTES)
+                && AttributesCodec.isSupported(object.getClass());
         try {
             for (String column : columns) {
-                Method method = object.getClass().getMethod(
-                        "get" + Character.toUpperCase(column.charAt(0)) + column.substring(1));
-                if (method.getReturnType().equals(boolean.class)) {
-                    setBoolean(column, (Boolean) method.invoke(object));
-                } else if (method.getReturnType().equals(int.class)) {
-                    setInteger(column, (Integer) method.invoke(object));
-                } else if (method.getReturnType().equals(long.class)) {
-                    setLong(column, (Long) method.invoke(object), column.endsWith("Id"));
-                } else if (method.getReturnType().equals(double.class)) {
-                    setDouble(column, (Double) method.invoke(object));
-                } else if (method.getReturnType().equals(String.class)) {
-                    setString(column, (String) method.invoke(object));
-                } else if (method.getReturnType().equals(Date.class)) {
-                    setDate(column, (Date) method.invoke(object));
-                } else if (method.getReturnType().equals(byte[].class)) {
-                    setBlob(column, (byte[]) method.invoke(object));
+                EntityMapper.Property property = mapper.getGetter(column);
+                if (property == null) {
+                    LOGGER.warn("Set object error", new NoSuchMethodException(column));
+                    continue;
+                }
+                Class<?> type = property.getType();
+                if (type.equals(boolean.class)) {
+                    setBoolean(column, (Boolean) property.get(object));
+                } else if (type.equals(int.class)) {
+                    setInteger(column, (Integer) property.get(object));
+                } else if (type.equals(long.class)) {
+                    setLong(column, (Long) property.get(object), column.endsWith("Id"));
+                } else if (type.equals(double.class)) {
+                    setDouble(column, (Double) property.get(object));
+                } else if (type.equals(String.class)) {
+                    setString(column, (String) property.get(object));
+                } else if (type.equals(Date.class)) {
+                    setDate(column, (Date) property.get(object));
+                } else if (type.equals(byte[].class)) {
+                    setBlob(column, (byte[]) property.get(object));
+                } else if (type.equals(Map.class) && binaryAttributes) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> attributes = (Map<String, Object>) property.get(object);
+                    setString(column, attributes != null ? AttributesCodec.encode(objectMapper, attributes) : null);
                 } else {
-                    setString(column, objectMapper.writeValueAsString(method.invoke(object)));
+                    setString(column, objectMapper.writeValueAsString(property.get(object)));
                 }
             }
-        } catch (ReflectiveOperationException | JsonProcessingException e) {
+        } catch (IOException e) {
             LOGGER.warn("Set object error", e);
         }
 
@@ -318,81 +401,66 @@ public final class QueryBuilder {
         void process(T object, ResultSet resultSet) throws SQLException;
     }
 
-    private <T> void addProcessors(
-            List<ResultSetProcessor<T>> processors,
-            final Class<?> parameterType, final Method method, final String name) {
+    private interface ColumnReader {
+        Object read(ResultSet resultSet, int index) throws SQLException;
+    }
 
-        if (parameterType.equals(boolean.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getBoolean(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(int.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getInt(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(long.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getLong(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(double.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getDouble(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(String.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getString(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(Date.class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    Timestamp timestamp = resultSet.getTimestamp(name);
-                    if (timestamp != null) {
-                        method.invoke(object, new Date(timestamp.getTime()));
+    private <T> ResultSetProcessor<T> createProcessor(EntityMapper.Property property, int index) {
+        Class<?> type = property.getType();
+        ColumnReader reader;
+        if (type.equals(boolean.class)) {
+            reader = ResultSet::getBoolean;
+        } else if (type.equals(int.class)) {
+            reader = ResultSet::getInt;
+        } else if (type.equals(long.class)) {
+            reader = ResultSet::getLong;
+        } else if (type.equals(double.class)) {
+            reader = ResultSet::getDouble;
+        } else if (type.equals(String.class)) {
+            reader = ResultSet::getString;
+        } else if (type.equals(Date.class)) {
+            reader = (resultSet, i) -> {
+                Timestamp timestamp = resultSet.getTimestamp(i);
+                return timestamp != null ? new Date(timestamp.getTime()) : null;
+            };
+        } else if (type.equals(byte[].class)) {
+            reader = ResultSet::getBytes;
+        } else if (type.equals(Map.class)) {
+            reader = (resultSet, i) -> {
+                String value = resultSet.getString(i);
+                if (value != null && !value.isEmpty()) {
+                    try {
+                        return AttributesCodec.decode(objectMapper, value);
+                    } catch (IOException error) {
+                        LOGGER.warn("Set property error", error);
                     }
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
-                }
-            });
-        } else if (parameterType.equals(byte[].class)) {
-            processors.add((object, resultSet) -> {
-                try {
-                    method.invoke(object, resultSet.getBytes(name));
-                } catch (IllegalAccessException | InvocationTargetException error) {
-                    LOGGER.warn("Set property error", error);
                 }
-            });
+                return null;
+            };
         } else {
-            processors.add((object, resultSet) -> {
-                String value = resultSet.getString(name);
+            reader = (resultSet, i) -> {
+                String value = resultSet.getString(i);
                 if (value != null && !value.isEmpty()) {
                     try {
-                        method.invoke(object, objectMapper.readValue(value, parameterType));
-                    } catch (InvocationTargetException | IllegalAccessException | IOException error) {
+                        return objectMapper.readValue(value, type);
+                    } catch (IOException error) {
                         LOGGER.warn("Set property error", error);
                     }
                 }
-            });
+                return null;
+            };
         }
+        boolean skipNull = !type.isPrimitive() && !type.equals(String.class) && !type.equals(byte[].class);
+        return (object, resultSet) -> {
+            Object value = reader.read(resultSet, index);
+            if (value != null || !skipNull) {
+                try {
+                    property.set(object, value);
+                } catch (RuntimeException error) {
+                    LOGGER.warn("Set property error", error);
+                }
+            }
+        };
     }
 
     private void logQuery() {
@@ -401,72 +469,117 @@ public final class QueryBuilder {
         }
     }
 
+    private void recordQuery(long startTime, long rows, boolean error) {
+        if (queryMetrics != null) {
+            long executeTime = System.nanoTime() - startTime;
+            queryMetrics.record(query, acquireTime, executeTime, rows, error);
+            long threshold = queryMetrics.getSlowQueryThreshold();
+            if (threshold > 0 && executeTime >= threshold) {
+                LOGGER.warn("Slow query {} ms, acquire: {} ms, rows: {}, query: {}, values: {}",
+                        TimeUnit.NANOSECONDS.toMillis(executeTime), TimeUnit.NANOSECONDS.toMillis(acquireTime),
+                        rows, query.trim(), values);
+            }
+        }
+    }
+
     public <T> List<T> executeQuery(Class<T> clazz) throws SQLException {
         List<T> result = new LinkedList<>();
 
         if (query != null) {
-
+            long startTime = System.nanoTime();
+            boolean error = true;
             try {
-
                 logQuery();
+                readResults(clazz, result::add, 0);
+                error = false;
+            } finally {
+                recordQuery(startTime, result.size(), error);
+                statement.close();
+                connection.close();
+            }
+        }
 
-                try (ResultSet resultSet = statement.executeQuery()) {
-
-                    ResultSetMetaData resultMetaData = resultSet.getMetaData();
-
-                    List<ResultSetProcessor<T>> processors = new LinkedList<>();
-
-                    Method[] methods = clazz.getMethods();
-
-                    for (final Method method : methods) {
-                        if (method.getName().startsWith("set") && method.getParameterTypes().length == 1) {
+        return result;
+    }
 
-                            final String name = method.getName().substring(3);
+    /**
+     * Pass results to the consumer as they are read, without collecting them in memory. The query runs inside a
+     * transaction, so the driver can use a server side cursor with the given fetch size. The connection stays busy
+     * until the consumer has processed all rows, so the whole call is limited by the stream timeout.
+     */
+    public <T> void executeQuery(Class<T> clazz, Consumer<T> consumer, int fetchSize) throws SQLException {
+        if (query != null) {
+            boolean autoCommit = connection.getAutoCommit();
+            long startTime = System.nanoTime();
+            long[] consumerTime = {0};
+            long rows = 0;
+            boolean error = true;
+            try {
+                logQuery();
+                connection.setAutoCommit(false);
+                statement.setFetchSize(fetchSize);
+                int timeout = config.getInteger(Keys.DATABASE_STREAM_TIMEOUT);
+                statement.setQueryTimeout(timeout);
+                rows = readResults(clazz, object -> {
+                    long consumerStartTime = System.nanoTime();
+                    consumer.accept(object);
+                    consumerTime[0] += System.nanoTime() - consumerStartTime;
+                }, timeout > 0 ? startTime + TimeUnit.SECONDS.toNanos(timeout) : 0);
+                connection.commit();
+                error = false;
+            } finally {
+                // time spent in the consumer (e.g. writing to a slow client) is not part of the query
+                recordQuery(startTime + consumerTime[0], rows, error);
+                connection.setAutoCommit(autoCommit);
+                statement.close();
+                connection.close();
+            }
+        }
+    }
 
-                            // Check if column exists
-                            boolean column = false;
-                            for (int i = 1; i <= resultMetaData.getColumnCount(); i++) {
-                                if (name.equalsIgnoreCase(resultMetaData.getColumnLabel(i))) {
-                                    column = true;
-                                    break;
-                                }
-                            }
-                            if (!column) {
-                                continue;
-                            }
+    private <T> long readResults(Class<T> clazz, Consumer<T> consumer, long deadline) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
 
-                            addProcessors(processors, method.getParameterTypes()[0], method, name);
-                        }
-                    }
+            ResultSetMetaData resultMetaData = resultSet.getMetaData();
+            EntityMapper mapper = EntityMapper.get(clazz);
 
-                    while (resultSet.next()) {
-                        try {
-                            T object = clazz.getDeclaredConstructor().newInstance();
-                            for (ResultSetProcessor<T> processor : processors) {
-                                processor.process(object, resultSet);
-                            }
-                            result.add(object);
-                        } catch (ReflectiveOperationException e) {
-                            throw new IllegalArgumentException();
-                        }
-                    }
+            List<ResultSetProcessor<T>> processors = new ArrayList<>();
+            Set<String> labels = new HashSet<>();
+            for (int i = 1; i <= resultMetaData.getColumnCount(); i++) {
+                String label = resultMetaData.getColumnLabel(i);
+                EntityMapper.Property property = mapper.getSetter(label);
+                if (property != null && labels.add(label.toLowerCase())) {
+                    processors.add(createProcessor(property, i));
                 }
+            }
 
-            } finally {
-                statement.close();
-                connection.close();
+            long rows = 0;
+            while (resultSet.next()) {
+                if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                    throw new SQLTimeoutException("Streaming query timeout after " + rows + " rows");
+                }
+                T object = mapper.newInstance();
+                for (ResultSetProcessor<T> processor : processors) {
+                    processor.process(object, resultSet);
+                }
+                consumer.accept(object);
+                rows += 1;
             }
+            return rows;
         }
-
-        return result;
     }
 
     public long executeUpdate() throws SQLException {
 
         if (query != null) {
+            long startTime = System.nanoTime();
+            long rows = 0;
+            boolean error = true;
             try {
                 logQuery();
                 statement.execute();
+                rows = Math.max(statement.getUpdateCount(), 0);
+                error = false;
                 if (returnGeneratedKeys) {
                     ResultSet resultSet = statement.getGeneratedKeys();
                     if (resultSet.next()) {
@@ -474,6 +587,7 @@ public final class QueryBuilder {
                     }
                 }
             } finally {
+                recordQuery(startTime, rows, error);
                 statement.close();
                 connection.close();
             }
@@ -481,9 +595,69 @@ public final class QueryBuilder {
         return 0;
     }
 
+    public QueryBuilder addBatch() throws SQLException {
+        if (query != null) {
+            try {
+                statement.addBatch();
+                batchCount += 1;
+            } catch (SQLException error) {
+                statement.close();
+                connection.close();
+                throw error;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Execute batch in a transaction. If generated keys are requested but the driver doesn't return a key for every
+     * row, the transaction is rolled back and the incomplete list of keys is returned.
+     */
+    public List<Long> executeBatch() throws SQLException {
+        List<Long> result = new ArrayList<>();
+        if (query != null) {
+            boolean autoCommit = connection.getAutoCommit();
+            long startTime = System.nanoTime();
+            long rows = 0;
+            boolean error = true;
+            try {
+                logQuery();
+                connection.setAutoCommit(false);
+                for (int count : statement.executeBatch()) {
+                    rows += Math.max(count, 0);
+                }
+                if (returnGeneratedKeys) {
+                    try (ResultSet resultSet = statement.getGeneratedKeys()) {
+                        while (resultSet.next()) {
+                            result.add(resultSet.getLong(1));
+                        }
+                    }
+                }
+                if (returnGeneratedKeys && result.size() != batchCount) {
+                    connection.rollback();
+                    rows = 0;
+                } else {
+                    connection.commit();
+                }
+                error = false;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                recordQuery(startTime, rows, error);
+                connection.setAutoCommit(autoCommit);
+                statement.close();
+                connection.close();
+            }
+        }
+        return result;
+    }
+
     public List<Permission> executePermissionsQuery() throws SQLException {
         List<Permission> result = new LinkedList<>();
         if (query != null) {
+            long startTime = System.nanoTime();
+            boolean error = true;
             try {
                 logQuery();
                 try (ResultSet resultSet = statement.executeQuery()) {
@@ -497,7 +671,9 @@ public final class QueryBuilder {
                         result.add(new Permission(map));
                     }
                 }
+                error = false;
             } finally {
+                recordQuery(startTime, result.size(), error);
                 statement.close();
                 connection.close();
             }
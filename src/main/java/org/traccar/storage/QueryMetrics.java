@@ -0,0 +1,165 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.storage;
+
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution statistics of SQL statements, grouped by statement text. Bind values are not part of the statement text,
+ * so all executions of the same query template are counted together. Counters are cumulative since server start.
+ */
+@Singleton
+public class QueryMetrics {
+
+    /**
+     * Upper bounds of the execution time histogram buckets in milliseconds. The last bucket is unbounded.
+     */
+    public static final long[] BUCKETS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    private static final int STATEMENTS_LIMIT = 1000;
+    private static final String OTHER_STATEMENTS = "other";
+
+    public static final class Statement {
+
+        private final String query;
+
+        private final LongAdder[] histogram = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder executeTime = new LongAdder();
+        private final LongAdder acquireTime = new LongAdder();
+        private final AtomicLong maxExecuteTime = new AtomicLong();
+
+        private Statement(String query) {
+            this.query = query;
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        private void record(long acquireNanos, long executeNanos, long rowCount, boolean error) {
+            count.increment();
+            if (error) {
+                errors.increment();
+            }
+            rows.add(rowCount);
+            acquireTime.add(acquireNanos);
+            executeTime.add(executeNanos);
+            maxExecuteTime.accumulateAndGet(executeNanos, Math::max);
+            long millis = TimeUnit.NANOSECONDS.toMillis(executeNanos);
+            int index = 0;
+            while (index < BUCKETS.length && millis >= BUCKETS[index]) {
+                index += 1;
+            }
+            histogram[index].increment();
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        /**
+         * Total execution time in milliseconds, including reading of the results.
+         */
+        public double getExecuteTime() {
+            return executeTime.sum() / 1000000.0;
+        }
+
+        public double getMaxExecuteTime() {
+            return maxExecuteTime.get() / 1000000.0;
+        }
+
+        /**
+         * Total time in milliseconds spent waiting for a database connection.
+         */
+        public double getAcquireTime() {
+            return acquireTime.sum() / 1000000.0;
+        }
+
+        /**
+         * Execution count per histogram bucket.
+         */
+        public long[] getHistogram() {
+            long[] result = new long[histogram.length];
+            for (int i = 0; i < histogram.length; i++) {
+                result[i] = histogram[i].sum();
+            }
+            return result;
+        }
+
+    }
+
+    private final long slowQueryThreshold;
+
+    private final Map<String, Statement> statements = new ConcurrentHashMap<>();
+
+    @Inject
+    public QueryMetrics(Config config) {
+        slowQueryThreshold = TimeUnit.MILLISECONDS.toNanos(config.getLong(Keys.LOGGER_SLOW_QUERIES));
+    }
+
+    /**
+     * Execution time in nanoseconds after which statements are logged with bind values. Zero if disabled.
+     */
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    public void record(String query, long acquireNanos, long executeNanos, long rows, boolean error) {
+        Statement statement = statements.get(query);
+        if (statement == null) {
+            String key = statements.size() < STATEMENTS_LIMIT ? query : OTHER_STATEMENTS;
+            statement = statements.computeIfAbsent(key, Statement::new);
+        }
+        statement.record(acquireNanos, executeNanos, rows, error);
+    }
+
+    /**
+     * Returns statements ordered by total execution time, starting with the most expensive.
+     */
+    public Collection<Statement> getStatements() {
+        List<Statement> result = new ArrayList<>(statements.values());
+        result.sort(Comparator.comparingDouble(Statement::getExecuteTime).reversed());
+        return result;
+    }
+
+}
@@ -17,20 +17,65 @@ package org.traccar.storage;
 
 import org.traccar.model.BaseModel;
 import org.traccar.model.Permission;
+import org.traccar.model.Position;
+import org.traccar.storage.query.Columns;
+import org.traccar.storage.query.Condition;
 import org.traccar.storage.query.Request;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 public abstract class Storage {
 
     public abstract <T> List<T> getObjects(Class<T> clazz, Request request) throws StorageException;
 
+    /**
+     * Pass matching objects to the consumer one by one. Unlike {@link #getObjects}, implementations are not required to
+     * keep the whole result set in memory, so it should be used for potentially large queries. A database connection
+     * can be held until the consumer returns for the last object, so it's meant for reports and exports only.
+     */
+    public <T> void streamObjects(Class<T> clazz, Request request, Consumer<T> consumer) throws StorageException {
+        getObjects(clazz, request).forEach(consumer);
+    }
+
     public abstract <T> long addObject(T entity, Request request) throws StorageException;
 
+    public <T> List<Long> addObjects(List<T> entities, Request request) throws StorageException {
+        List<Long> result = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            result.add(addObject(entity, request));
+        }
+        return result;
+    }
+
     public abstract <T> void updateObject(T entity, Request request) throws StorageException;
 
+    public <T extends BaseModel> void updateObjects(List<T> entities, Columns columns) throws StorageException {
+        for (T entity : entities) {
+            updateObject(entity, new Request(columns, new Condition.Equals("id", entity.getId())));
+        }
+    }
+
     public abstract void removeObject(Class<?> clazz, Request request) throws StorageException;
 
+    /**
+     * Positions of the device moved out of the main storage, ordered by fix time. Empty unless archiving is enabled.
+     */
+    public List<Position> getArchivedPositions(long deviceId, Date from, Date to) throws StorageException {
+        return new ArrayList<>();
+    }
+
+    /**
+     * Same as {@link #getArchivedPositions}, but implementations may read the archive lazily while iterating. Read
+     * errors are thrown as {@link java.io.UncheckedIOException}.
+     */
+    public Iterator<Position> iterateArchivedPositions(long deviceId, Date from, Date to) throws StorageException {
+        return getArchivedPositions(deviceId, from, to).iterator();
+    }
+
     public abstract List<Permission> getPermissions(
             Class<? extends BaseModel> ownerClass, long ownerId,
             Class<? extends BaseModel> propertyClass, long propertyId) throws StorageException;
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.storage;
+
+/**
+ * Workload class of the current thread. Storage requests are routed to the connection pool of the workload, so heavy
+ * reports can't take connections away from storing incoming data. Threads default to the API workload.
+ */
+public enum StorageWorkload {
+
+    INGEST,
+    API,
+    REPORTS,
+    BACKGROUND;
+
+    private static final ThreadLocal<StorageWorkload> CURRENT = ThreadLocal.withInitial(() -> API);
+
+    public static StorageWorkload current() {
+        return CURRENT.get();
+    }
+
+    public static void set(StorageWorkload workload) {
+        CURRENT.set(workload);
+    }
+
+    public String getName() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * Wrap thread body, so that all storage requests made by the thread belong to this workload.
+     */
+    public Runnable wrap(Runnable runnable) {
+        return () -> {
+            CURRENT.set(this);
+            runnable.run();
+        };
+    }
+
+}
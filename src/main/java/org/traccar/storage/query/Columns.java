@@ -20,17 +20,28 @@ import org.traccar.storage.QueryIgnore;
 import java.beans.Introspector;
 import java.lang.reflect.Method;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public abstract class Columns {
 
+    private static final Map<Class<?>, List<String>> GETTER_COLUMNS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, List<String>> SETTER_COLUMNS = new ConcurrentHashMap<>();
+
     public abstract List<String> getColumns(Class<?> clazz, String type);
 
     protected List<String> getAllColumns(Class<?> clazz, String type) {
-        List<String> columns = new LinkedList<>();
+        Map<Class<?>, List<String>> cache = type.equals("set") ? SETTER_COLUMNS : GETTER_COLUMNS;
+        return cache.computeIfAbsent(clazz, key -> findColumns(key, type));
+    }
+
+    private static List<String> findColumns(Class<?> clazz, String type) {
+        List<String> columns = new ArrayList<>();
         Method[] methods = clazz.getMethods();
         for (Method method : methods) {
             int parameterCount = type.equals("set") ? 1 : 0;
@@ -40,7 +51,7 @@ public abstract class Columns {
                 columns.add(Introspector.decapitalize(method.getName().substring(3)));
             }
         }
-        return columns;
+        return Collections.unmodifiableList(columns);
     }
 
     public static class All extends Columns {
@@ -17,6 +17,7 @@ package org.traccar.storage.query;
 
 import org.traccar.model.GroupedModel;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface Condition {
@@ -105,6 +106,61 @@ public interface Condition {
         }
     }
 
+    /**
+     * Column value is one of the given values. Each value is bound to a separate variable with an index suffix.
+     */
+    class In implements Condition {
+        private final String column;
+        private final String variable;
+        private final List<Object> values;
+
+        public In(String column, String variable, Collection<?> values) {
+            this.column = column;
+            this.variable = variable;
+            this.values = List.copyOf(values);
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public String getVariable() {
+            return variable;
+        }
+
+        public List<Object> getValues() {
+            return values;
+        }
+    }
+
+    /**
+     * Rows following the given key in the order of the column and the id. Combined with an order on the same two
+     * columns this allows paging through large tables without offsets.
+     */
+    class Keyset implements Condition {
+        private final String column;
+        private final Object value;
+        private final long id;
+
+        public Keyset(String column, Object value, long id) {
+            this.column = column;
+            this.value = value;
+            this.id = id;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public long getId() {
+            return id;
+        }
+    }
+
     class Or extends Binary {
         public Or(Condition first, Condition second) {
             super(first, second, "OR");
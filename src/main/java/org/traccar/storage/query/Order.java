@@ -18,6 +18,7 @@ package org.traccar.storage.query;
 public class Order {
 
     private final String column;
+    private final String secondaryColumn;
     private final boolean descending;
     private final int limit;
 
@@ -26,8 +27,17 @@ public class Order {
     }
 
     public Order(String column, boolean descending, int limit) {
+        this(column, null, descending, limit);
+    }
+
+    /**
+     * Order by two columns in the same direction. Used for keyset pagination, where the secondary column makes the
+     * order unique.
+     */
+    public Order(String column, String secondaryColumn, boolean descending, int limit) {
         this.column = column;
-        this.descending = false;
+        this.secondaryColumn = secondaryColumn;
+        this.descending = descending;
         this.limit = limit;
     }
 
@@ -35,6 +45,10 @@ public class Order {
         return column;
     }
 
+    public String getSecondaryColumn() {
+        return secondaryColumn;
+    }
+
     public boolean getDescending() {
         return descending;
     }
@@ -20,6 +20,7 @@ public class Request {
     private final Columns columns;
     private final Condition condition;
     private final Order order;
+    private final Limit limit;
 
     public Request(Columns columns) {
         this(columns, null, null);
@@ -41,6 +42,7 @@ public class Request {
         this.columns = columns;
         this.condition = condition;
         this.order = order;
+        this.limit = limit;
     }
 
     public Columns getColumns() {
@@ -55,4 +57,8 @@ public class Request {
         return order;
     }
 
+    public Limit getLimit() {
+        return limit;
+    }
+
 }
@@ -46,6 +46,7 @@ import org.traccar.LifecycleObject;
 import org.traccar.api.CorsResponseFilter;
 import org.traccar.api.DateParameterConverterProvider;
 import org.traccar.api.ResourceErrorHandler;
+import org.traccar.api.StorageWorkloadFilter;
 import org.traccar.api.resource.ServerResource;
 import org.traccar.api.security.SecurityRequestFilter;
 import org.traccar.config.Config;
@@ -181,6 +182,7 @@ public class WebServer implements LifecycleObject {
                 ObjectMapperContextResolver.class,
                 DateParameterConverterProvider.class,
                 SecurityRequestFilter.class,
+                StorageWorkloadFilter.class,
                 CorsResponseFilter.class,
                 ResourceErrorHandler.class);
         resourceConfig.packages(ServerResource.class.getPackage().getName());
@@ -0,0 +1,34 @@
+package org.traccar.api;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PageCursorTest {
+
+    @Test
+    public void testEncoding() {
+        PageCursor cursor = new PageCursor(new Date(1660000000000L), 42);
+        assertEquals("1660000000000:42", cursor.toString());
+
+        var condition = PageCursor.getCondition("fixTime", cursor.toString());
+        assertEquals("fixTime", condition.getColumn());
+        assertEquals(new Date(1660000000000L), condition.getValue());
+        assertEquals(42, condition.getId());
+    }
+
+    @Test
+    public void testEmpty() {
+        assertNull(PageCursor.parse(null));
+        assertNull(PageCursor.getCondition("fixTime", ""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalid() {
+        PageCursor.parse("invalid");
+    }
+
+}
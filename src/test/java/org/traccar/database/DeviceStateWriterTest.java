@@ -0,0 +1,122 @@
+package org.traccar.database;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.model.Device;
+import org.traccar.storage.Storage;
+import org.traccar.storage.query.Columns;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeviceStateWriterTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCoalesceUpdates() throws Exception {
+
+        var config = mock(Config.class);
+        when(config.getLong(Keys.DATABASE_DEVICE_WRITE_INTERVAL)).thenReturn(60000L);
+        var storage = mock(Storage.class);
+
+        var writer = new DeviceStateWriter(config, storage);
+        writer.start();
+
+        Device device = new Device();
+        device.setId(1);
+        writer.updateDevice(device, "status", "lastUpdate");
+        writer.updateDevice(device, "status", "positionId");
+
+        verify(storage, never()).updateObject(any(), any());
+
+        writer.stop();
+
+        ArgumentCaptor<List<Device>> devices = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Columns> columns = ArgumentCaptor.forClass(Columns.class);
+        verify(storage, times(1)).updateObjects(devices.capture(), columns.capture());
+        assertEquals(1, devices.getValue().size());
+        assertEquals(
+                List.of("lastUpdate", "positionId", "status"),
+                columns.getValue().getColumns(Device.class, "get"));
+
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMergeSources() throws Exception {
+
+        var config = mock(Config.class);
+        when(config.getLong(Keys.DATABASE_DEVICE_WRITE_INTERVAL)).thenReturn(60000L);
+        var storage = mock(Storage.class);
+
+        var writer = new DeviceStateWriter(config, storage);
+        writer.start();
+
+        Device device = new Device();
+        device.setId(1);
+        device.setStatus(Device.STATUS_ONLINE);
+        writer.updateDevice(device, "status");
+
+        Device updatedDevice = new Device();
+        updatedDevice.setId(1);
+        updatedDevice.setPositionId(2);
+        writer.updateDevice(updatedDevice, "positionId");
+
+        device.setStatus(Device.STATUS_OFFLINE);
+
+        writer.stop();
+
+        ArgumentCaptor<List<Device>> devices = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Columns> columns = ArgumentCaptor.forClass(Columns.class);
+        verify(storage, times(1)).updateObjects(devices.capture(), columns.capture());
+        assertEquals(1, devices.getValue().size());
+        assertEquals(1, devices.getValue().get(0).getId());
+        assertEquals(Device.STATUS_ONLINE, devices.getValue().get(0).getStatus());
+        assertEquals(2, devices.getValue().get(0).getPositionId());
+        assertEquals(
+                List.of("positionId", "status"),
+                columns.getValue().getColumns(Device.class, "get"));
+
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCopyValues() throws Exception {
+
+        var config = mock(Config.class);
+        when(config.getLong(Keys.DATABASE_DEVICE_WRITE_INTERVAL)).thenReturn(60000L);
+        var storage = mock(Storage.class);
+
+        var writer = new DeviceStateWriter(config, storage);
+        writer.start();
+
+        Device device = new Device();
+        device.setId(1);
+        device.setLastUpdate(new Date(1000));
+        device.set("first", true);
+        writer.updateDevice(device, "lastUpdate", "attributes");
+
+        device.getLastUpdate().setTime(2000);
+        device.set("second", true);
+
+        writer.stop();
+
+        ArgumentCaptor<List<Device>> devices = ArgumentCaptor.forClass(List.class);
+        verify(storage, times(1)).updateObjects(devices.capture(), any());
+        assertEquals(new Date(1000), devices.getValue().get(0).getLastUpdate());
+        assertEquals(Map.of("first", true), devices.getValue().get(0).getAttributes());
+
+    }
+
+}
@@ -0,0 +1,121 @@
+package org.traccar.database;
+
+import org.junit.Test;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.model.Position;
+import org.traccar.storage.Storage;
+import org.traccar.storage.StorageException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PositionBatchWriterTest {
+
+    @Test
+    public void testWriteBatch() throws Exception {
+
+        var config = mock(Config.class);
+        when(config.getInteger(Keys.DATABASE_BATCH_SIZE)).thenReturn(10);
+        when(config.getLong(Keys.DATABASE_BATCH_LINGER)).thenReturn(1000L);
+        when(config.getInteger(Keys.DATABASE_BATCH_QUEUE_SIZE)).thenReturn(100);
+
+        var counter = new AtomicLong();
+        var storage = mock(Storage.class);
+        when(storage.addObject(any(), any())).thenAnswer(invocation -> counter.incrementAndGet());
+        when(storage.addObjects(anyList(), any())).thenAnswer(invocation -> {
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < invocation.getArgument(0, List.class).size(); i++) {
+                ids.add(counter.incrementAndGet());
+            }
+            return ids;
+        });
+
+        var writer = new PositionBatchWriter(config, new PositionStore(storage), mock(StoragePressure.class));
+        var callbacks = new AtomicInteger();
+
+        writer.start();
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Position position = new Position();
+            positions.add(position);
+            writer.write(position, null, result -> callbacks.incrementAndGet());
+        }
+        writer.stop();
+
+        assertEquals(3, callbacks.get());
+        assertEquals(0, writer.getQueueSize());
+        for (int i = 0; i < positions.size(); i++) {
+            assertEquals(i + 1, positions.get(i).getId());
+        }
+
+    }
+
+    @Test
+    public void testMissingKeys() throws Exception {
+
+        var config = mock(Config.class);
+        when(config.getInteger(Keys.DATABASE_BATCH_SIZE)).thenReturn(10);
+        when(config.getInteger(Keys.DATABASE_BATCH_QUEUE_SIZE)).thenReturn(100);
+
+        var counter = new AtomicLong();
+        var storage = mock(Storage.class);
+        when(storage.addObjects(anyList(), any())).thenReturn(List.of(100L));
+        when(storage.addObject(any(), any())).thenAnswer(invocation -> {
+            if (counter.incrementAndGet() == 2) {
+                throw new StorageException("error");
+            }
+            return counter.get();
+        });
+
+        var writer = new PositionBatchWriter(config, new PositionStore(storage), mock(StoragePressure.class));
+        List<Position> results = new ArrayList<>();
+
+        writer.start();
+        for (int i = 0; i < 3; i++) {
+            writer.write(new Position(), null, results::add);
+        }
+        writer.stop();
+
+        assertEquals(3, results.size());
+        assertEquals(1, results.get(0).getId());
+        assertNull(results.get(1));
+        assertEquals(3, results.get(2).getId());
+
+    }
+
+    @Test
+    public void testUnexpectedError() throws Exception {
+
+        var config = mock(Config.class);
+        when(config.getInteger(Keys.DATABASE_BATCH_SIZE)).thenReturn(10);
+        when(config.getInteger(Keys.DATABASE_BATCH_QUEUE_SIZE)).thenReturn(100);
+
+        var storage = mock(Storage.class);
+        when(storage.addObject(any(), any())).thenThrow(new IllegalStateException("error"));
+
+        var storagePressure = mock(StoragePressure.class);
+        var writer = new PositionBatchWriter(config, new PositionStore(storage), storagePressure);
+        List<Position> results = new ArrayList<>();
+
+        writer.start();
+        writer.write(new Position(), null, results::add);
+        writer.stop();
+
+        assertEquals(1, results.size());
+        assertNull(results.get(0));
+        verify(storagePressure).writeFinished(1);
+
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.traccar.database;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramChannel;
+import org.junit.Test;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class StoragePressureTest {
+
+    @Test
+    public void testPauseBusiest() {
+
+        var config = mock(Config.class);
+        when(config.getBoolean(Keys.DATABASE_BACKPRESSURE_ENABLE)).thenReturn(true);
+        when(config.getLong(Keys.DATABASE_BACKPRESSURE_INTERVAL)).thenReturn(1000L);
+        when(config.getLong(Keys.DATABASE_BACKPRESSURE_WAIT)).thenReturn(100L);
+        when(config.getInteger(Keys.DATABASE_BACKPRESSURE_WRITES)).thenReturn(10);
+        when(config.getInteger(Keys.DATABASE_BACKPRESSURE_CHANNELS)).thenReturn(1);
+
+        var storagePressure = new StoragePressure(config);
+
+        var busy = new EmbeddedChannel();
+        var quiet = new EmbeddedChannel();
+        storagePressure.registerMessage(busy);
+        storagePressure.registerMessage(busy);
+        storagePressure.registerMessage(quiet);
+
+        storagePressure.writeStarted(20);
+        storagePressure.check();
+
+        assertFalse(busy.config().isAutoRead());
+        assertTrue(quiet.config().isAutoRead());
+        assertEquals(1, storagePressure.getPausedChannels());
+
+        storagePressure.writeFinished(20);
+        storagePressure.check();
+
+        assertTrue(busy.config().isAutoRead());
+        assertEquals(0, storagePressure.getPausedChannels());
+        assertEquals(1, storagePressure.getPauseCount());
+
+    }
+
+    @Test
+    public void testDatagramNotPaused() {
+
+        var storagePressure = new StoragePressure(mock(Config.class));
+
+        var channel = mock(DatagramChannel.class);
+        storagePressure.pauseChannel(channel);
+
+        verifyNoInteractions(channel);
+        assertEquals(0, storagePressure.getPausedChannels());
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.traccar.handler;
+
+import org.junit.Test;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.database.PositionStore;
+import org.traccar.database.StoragePressure;
+import org.traccar.model.Position;
+import org.traccar.session.cache.CacheManager;
+import org.traccar.storage.Storage;
+import org.traccar.storage.StorageException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BacklogHandlerTest {
+
+    private Position position(long time) {
+        Position position = new Position();
+        position.setDeviceId(1);
+        position.setTime(new Date(time));
+        return position;
+    }
+
+    @Test
+    public void testStoreFailure() throws Exception {
+
+        var config = mock(Config.class);
+        when(config.getBoolean(Keys.PROCESSING_BACKLOG_ENABLE)).thenReturn(true);
+        var cacheManager = mock(CacheManager.class);
+        var storage = mock(Storage.class);
+        when(storage.addObjects(anyList(), any())).thenThrow(new StorageException("error"));
+        when(storage.addObject(any(), any())).thenThrow(new StorageException("error"));
+
+        var handler = new BacklogHandler(
+                config, cacheManager, storage, new DistanceHandler(new Config(), cacheManager),
+                new DefaultDataHandler(new PositionStore(storage), null, mock(StoragePressure.class)));
+
+        List<Position> positions = List.of(position(1000), position(2000));
+        List<Position> results = new ArrayList<>();
+        try {
+            handler.handlePositions(null, positions, results::addAll);
+            fail();
+        } catch (StorageException e) {
+            assertTrue(results.isEmpty());
+            assertEquals(0, positions.get(0).getId());
+            assertEquals(0, positions.get(1).getId());
+        }
+
+    }
+
+}
@@ -5,6 +5,9 @@ import org.traccar.config.Config;
 import org.traccar.model.Position;
 import org.traccar.session.cache.CacheManager;
 
+import java.util.Date;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 
@@ -29,4 +32,25 @@ public class DistanceHandlerTest {
 
     }
 
+    @Test
+    public void testCalculateDistanceBatch() {
+
+        DistanceHandler distanceHandler = new DistanceHandler(new Config(), mock(CacheManager.class));
+
+        Position first = new Position();
+        first.setFixTime(new Date(1000));
+        first.set(Position.KEY_DISTANCE, 100);
+
+        Position second = new Position();
+        second.setFixTime(new Date(2000));
+        second.set(Position.KEY_DISTANCE, 50);
+
+        List<Position> positions = distanceHandler.handlePositions(List.of(first, second));
+
+        assertEquals(2, positions.size());
+        assertEquals(100.0, positions.get(0).getAttributes().get(Position.KEY_TOTAL_DISTANCE));
+        assertEquals(150.0, positions.get(1).getAttributes().get(Position.KEY_TOTAL_DISTANCE));
+
+    }
+
 }
@@ -0,0 +1,59 @@
+package org.traccar.reports;
+
+import org.junit.Test;
+import org.traccar.model.Position;
+import org.traccar.storage.Storage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CsvExportProviderTest {
+
+    private Position position(long id, long time, String key) {
+        Position position = new Position("test");
+        position.setId(id);
+        position.setDeviceId(1);
+        position.setTime(new Date(time));
+        position.set(key, id);
+        return position;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMergeArchived() throws Exception {
+
+        var storage = mock(Storage.class);
+        when(storage.iterateArchivedPositions(anyLong(), any(), any())).thenAnswer(
+                invocation -> List.of(position(1, 1000, "archived"), position(3, 3000, "archived")).iterator());
+        doAnswer(invocation -> {
+            Consumer<Position> consumer = invocation.getArgument(2);
+            consumer.accept(position(2, 2000, "stored"));
+            consumer.accept(position(4, 4000, "stored"));
+            return null;
+        }).when(storage).streamObjects(eq(Position.class), any(), any());
+
+        var output = new ByteArrayOutputStream();
+        new CsvExportProvider(storage).generate(output, 1, new Date(0), new Date(5000));
+
+        String[] lines = output.toString().split("\\R");
+        assertEquals(5, lines.length);
+        assertTrue(lines[0].endsWith(",archived,stored"));
+        for (int i = 1; i < lines.length; i++) {
+            assertTrue(lines[i].startsWith(i + ",1,test,"));
+            assertEquals(lines[0].split(",").length, lines[i].split(",", -1).length);
+        }
+
+    }
+
+}
@@ -0,0 +1,162 @@
+package org.traccar.session.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.traccar.broadcast.BroadcastService;
+import org.traccar.config.Config;
+import org.traccar.model.BaseModel;
+import org.traccar.model.Device;
+import org.traccar.model.Geofence;
+import org.traccar.model.Group;
+import org.traccar.model.Notification;
+import org.traccar.model.Permission;
+import org.traccar.model.Server;
+import org.traccar.model.User;
+import org.traccar.storage.PositionSnapshot;
+import org.traccar.storage.Storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Links resolved from the preloaded index must match what the permission queries with group expansion return. The
+ * queries expand the device group, its parent and its grandparent.
+ */
+public class CacheManagerTest {
+
+    private final Map<Class<?>, List<BaseModel>> objects = new HashMap<>();
+    private final List<Permission> permissions = new ArrayList<>();
+
+    private Storage storage;
+
+    private void addObject(BaseModel object, long id) {
+        object.setId(id);
+        objects.computeIfAbsent(object.getClass(), k -> new ArrayList<>()).add(object);
+    }
+
+    private void addGroup(long id, long parentId) {
+        Group group = new Group();
+        group.setGroupId(parentId);
+        addObject(group, id);
+    }
+
+    private void addNotification(long id, boolean always) {
+        Notification notification = new Notification();
+        notification.setAlways(always);
+        addObject(notification, id);
+    }
+
+    private void link(Class<? extends BaseModel> ownerClass, long ownerId,
+                      Class<? extends BaseModel> propertyClass, long propertyId) {
+        permissions.add(new Permission(ownerClass, ownerId, propertyClass, propertyId));
+    }
+
+    private static Set<Long> ids(List<? extends BaseModel> objects) {
+        return objects.stream().map(BaseModel::getId).collect(Collectors.toSet());
+    }
+
+    @Before
+    public void init() throws Exception {
+
+        addObject(new Server(), 1);
+
+        addGroup(4, 0);
+        addGroup(1, 4);
+        addGroup(2, 1);
+        addGroup(3, 2);
+
+        Device device = new Device();
+        device.setGroupId(3);
+        addObject(device, 10);
+
+        for (long id = 100; id <= 104; id++) {
+            addObject(new Geofence(), id);
+        }
+        link(Device.class, 10, Geofence.class, 100);
+        link(Group.class, 3, Geofence.class, 101);
+        link(Group.class, 1, Geofence.class, 102);
+        link(Device.class, 11, Geofence.class, 103);
+        link(Group.class, 4, Geofence.class, 104);
+
+        for (long id = 200; id <= 204; id++) {
+            addObject(new User(), id);
+        }
+        link(User.class, 200, Device.class, 10);
+        link(User.class, 201, Group.class, 1);
+        link(User.class, 203, Group.class, 3);
+        link(User.class, 204, Group.class, 4);
+
+        addNotification(300, false);
+        addNotification(301, true);
+        addNotification(302, false);
+        link(Device.class, 10, Notification.class, 300);
+        link(User.class, 201, Notification.class, 301);
+        link(User.class, 200, Notification.class, 302);
+
+        storage = mock(Storage.class);
+        when(storage.getObjects(any(), any())).thenAnswer(
+                invocation -> objects.getOrDefault(invocation.<Class<?>>getArgument(0), List.of()));
+        when(storage.getObject(any(), any())).thenAnswer(invocation -> {
+            List<BaseModel> result = objects.getOrDefault(invocation.<Class<?>>getArgument(0), List.of());
+            return result.isEmpty() ? null : result.get(0);
+        });
+        when(storage.getPermissions(any(), any())).thenAnswer(invocation -> permissions.stream()
+                .filter(permission -> permission.getOwnerClass() == invocation.getArgument(0))
+                .filter(permission -> permission.getPropertyClass() == invocation.getArgument(1))
+                .collect(Collectors.toList()));
+
+    }
+
+    @Test
+    public void testDeviceLinks() throws Exception {
+
+        var cacheManager = new CacheManager(
+                mock(Config.class), storage, mock(BroadcastService.class), mock(PositionSnapshot.class));
+        cacheManager.addDevice(10);
+
+        assertNotNull(cacheManager.getObject(Device.class, 10));
+        assertNotNull(cacheManager.getObject(Group.class, 3));
+        assertNotNull(cacheManager.getObject(Group.class, 1));
+
+        // direct, group and grandparent group links
+        assertEquals(Set.of(100L, 101L, 102L), ids(cacheManager.getDeviceObjects(10, Geofence.class)));
+
+        // users linked directly and through the group hierarchy
+        assertEquals(Set.of(200L, 201L, 203L), ids(cacheManager.getDeviceObjects(10, User.class)));
+
+        // direct links and always notifications of linked users
+        assertEquals(Set.of(300L, 301L), ids(cacheManager.getDeviceObjects(10, Notification.class)));
+
+    }
+
+    @Test
+    public void testRemovedDeviceLinks() throws Exception {
+
+        var index = new CacheIndex(storage, List.of(Geofence.class, Notification.class));
+        index.load();
+
+        assertEquals(Set.of(100L), index.getProperties(Device.class, 10, Geofence.class));
+        assertEquals(Set.of(200L), index.getOwners(User.class, Device.class, 10));
+
+        objects.remove(Device.class);
+        index.refreshObject(Device.class, 10);
+
+        assertEquals(Set.of(), index.getProperties(Device.class, 10, Geofence.class));
+        assertEquals(Set.of(), index.getProperties(Device.class, 10, Notification.class));
+        assertEquals(Set.of(), index.getOwners(User.class, Device.class, 10));
+        assertEquals(Set.of(), index.getProperties(User.class, 200, Device.class));
+        assertEquals(Set.of(), index.getOwners(Device.class, Geofence.class, 100));
+
+    }
+
+}
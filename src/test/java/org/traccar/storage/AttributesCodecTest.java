@@ -0,0 +1,50 @@
+package org.traccar.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.traccar.model.Position;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AttributesCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put(Position.KEY_SATELLITES, 7);
+        attributes.put(Position.KEY_HDOP, 0.9);
+        attributes.put(Position.KEY_TOTAL_DISTANCE, 123456.78);
+        attributes.put(Position.KEY_POWER, Math.PI);
+        attributes.put(Position.KEY_IGNITION, true);
+        attributes.put(Position.KEY_ODOMETER, 1L << 40);
+        attributes.put("temp1", -5);
+        attributes.put("custom", "value");
+        attributes.put("list", List.of(1, 2));
+        attributes.put("empty", null);
+
+        String value = AttributesCodec.encode(objectMapper, attributes);
+        assertFalse(AttributesCodec.isJson(value));
+        assertTrue(value.length() < objectMapper.writeValueAsString(attributes).length());
+        assertEquals(attributes, AttributesCodec.decode(objectMapper, value));
+
+    }
+
+    @Test
+    public void testDecodeJson() throws Exception {
+
+        Map<String, Object> attributes = AttributesCodec.decode(objectMapper, "{\"sat\":7,\"ignition\":true}");
+        assertEquals(7, attributes.get(Position.KEY_SATELLITES));
+        assertEquals(true, attributes.get(Position.KEY_IGNITION));
+
+    }
+
+}
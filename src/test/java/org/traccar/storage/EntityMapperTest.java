@@ -0,0 +1,33 @@
+package org.traccar.storage;
+
+import org.junit.Test;
+import org.traccar.model.Device;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EntityMapperTest {
+
+    @Test
+    public void testAccessors() {
+
+        EntityMapper mapper = EntityMapper.get(Device.class);
+
+        Device device = mapper.newInstance();
+        mapper.getSetter("id").set(device, 10L);
+        mapper.getSetter("NAME").set(device, "test");
+        mapper.getSetter("lastUpdate").set(device, new Date(1000));
+        mapper.getSetter("disabled").set(device, true);
+
+        assertEquals(10L, mapper.getGetter("id").get(device));
+        assertEquals("test", mapper.getGetter("name").get(device));
+        assertEquals(new Date(1000), mapper.getGetter("lastupdate").get(device));
+        assertEquals(true, mapper.getGetter("disabled").get(device));
+        assertEquals(long.class, mapper.getGetter("id").getType());
+        assertNull(mapper.getSetter("class"));
+
+    }
+
+}
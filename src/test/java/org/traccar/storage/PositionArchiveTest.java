@@ -0,0 +1,97 @@
+package org.traccar.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.model.Position;
+
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PositionArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Position createPosition(long id, long time, double latitude, double longitude) {
+        Position position = new Position("test");
+        position.setId(id);
+        position.setDeviceId(1);
+        position.setFixTime(new Date(time));
+        position.setDeviceTime(new Date(time));
+        position.setServerTime(new Date(time + 1500));
+        position.setValid(true);
+        position.setLatitude(latitude);
+        position.setLongitude(longitude);
+        position.setSpeed(12.5);
+        position.setCourse(270);
+        position.set(Position.KEY_SATELLITES, 9);
+        return position;
+    }
+
+    @Test
+    public void testAddGet() throws Exception {
+
+        Config config = new Config();
+        config.setString(Keys.DATABASE_ARCHIVE_PATH, folder.getRoot().getPath());
+        PositionArchive archive = new PositionArchive(config, new ObjectMapper());
+        assertTrue(archive.isEnabled());
+
+        LocalDate day = LocalDate.of(2022, 5, 10);
+        long start = 1652140800000L;
+        archive.addPositions(1, day, List.of(
+                createPosition(12, start + 60000, 48.8583701, 2.2944813),
+                createPosition(10, start + 1000, 48.8582, 2.2945)));
+        archive.addPositions(1, day, List.of(createPosition(11, start + 30000, -33.8567844, 151.2152967)));
+
+        List<Position> positions = archive.getPositions(1, new Date(start), new Date(start + 86400000L));
+        assertEquals(3, positions.size());
+        assertEquals(10, positions.get(0).getId());
+        assertEquals(11, positions.get(1).getId());
+        assertEquals(12, positions.get(2).getId());
+
+        Position position = positions.get(2);
+        assertEquals(1, position.getDeviceId());
+        assertEquals(new Date(start + 60000), position.getFixTime());
+        assertEquals(new Date(start + 61500), position.getServerTime());
+        assertEquals(48.8583701, position.getLatitude(), 0.00000001);
+        assertEquals(2.2944813, position.getLongitude(), 0.00000001);
+        assertEquals(12.5, position.getSpeed(), 0);
+        assertEquals("test", position.getProtocol());
+        assertEquals(9, position.getAttributes().get(Position.KEY_SATELLITES));
+
+        assertEquals(1, archive.getPositions(1, new Date(start + 20000), new Date(start + 40000)).size());
+
+    }
+
+    @Test
+    public void testIterate() throws Exception {
+
+        Config config = new Config();
+        config.setString(Keys.DATABASE_ARCHIVE_PATH, folder.getRoot().getPath());
+        PositionArchive archive = new PositionArchive(config, new ObjectMapper());
+
+        long start = 1652140800000L;
+        archive.addPositions(1, LocalDate.of(2022, 5, 10), List.of(createPosition(10, start + 1000, 10, 20)));
+        archive.addPositions(1, LocalDate.of(2022, 5, 12), List.of(
+                createPosition(20, start + 2 * 86400000L + 1000, 10, 20),
+                createPosition(21, start + 2 * 86400000L + 2000, 10, 20)));
+
+        Iterator<Position> iterator = archive.iteratePositions(
+                1, new Date(start), new Date(start + 2 * 86400000L + 1500));
+        assertEquals(10, iterator.next().getId());
+        assertEquals(20, iterator.next().getId());
+        assertFalse(iterator.hasNext());
+
+    }
+
+}
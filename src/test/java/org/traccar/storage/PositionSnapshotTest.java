@@ -0,0 +1,70 @@
+package org.traccar.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.traccar.config.Config;
+import org.traccar.config.Keys;
+import org.traccar.model.Position;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PositionSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Position createPosition(long id, long deviceId) {
+        Position position = new Position("test");
+        position.setId(id);
+        position.setDeviceId(deviceId);
+        position.setTime(new Date(1652140800000L));
+        position.setServerTime(new Date(1652140801500L));
+        position.setValid(true);
+        position.setLatitude(48.858370123);
+        position.setLongitude(2.294481345);
+        position.setSpeed(12.5);
+        position.set(Position.KEY_TOTAL_DISTANCE, 1234.56);
+        return position;
+    }
+
+    @Test
+    public void testWriteRestore() throws Exception {
+
+        Config config = new Config();
+        config.setString(Keys.DATABASE_SNAPSHOT_PATH, folder.getRoot().toPath().resolve("snapshot.bin").toString());
+
+        PositionSnapshot snapshot = new PositionSnapshot(config, new ObjectMapper());
+        snapshot.write(List.of(createPosition(10, 1), createPosition(20, 2), createPosition(30, 3)));
+
+        snapshot = new PositionSnapshot(config, new ObjectMapper());
+
+        Position position = snapshot.getPosition(1, 10);
+        assertNotNull(position);
+        assertEquals(1, position.getDeviceId());
+        assertEquals(new Date(1652140800000L), position.getFixTime());
+        assertEquals(new Date(1652140801500L), position.getServerTime());
+        assertEquals(48.858370123, position.getLatitude(), 0);
+        assertEquals(2.294481345, position.getLongitude(), 0);
+        assertEquals(12.5, position.getSpeed(), 0);
+        assertEquals("test", position.getProtocol());
+        assertEquals(1234.56, position.getDouble(Position.KEY_TOTAL_DISTANCE), 0);
+
+        assertNull(snapshot.getPosition(1, 10));
+        assertNull(snapshot.getPosition(2, 21));
+
+        snapshot.write(List.of(createPosition(11, 1)));
+        snapshot = new PositionSnapshot(config, new ObjectMapper());
+        assertNotNull(snapshot.getPosition(1, 11));
+        assertNull(snapshot.getPosition(2, 20));
+        assertNotNull(snapshot.getPosition(3, 30));
+
+    }
+
+}